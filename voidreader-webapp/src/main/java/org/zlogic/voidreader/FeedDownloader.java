@@ -5,19 +5,35 @@
  */
 package org.zlogic.voidreader;
 
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
 import com.rometools.opml.feed.opml.Opml;
 import com.rometools.rome.io.FeedException;
 import com.rometools.rome.io.WireFeedInput;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ResourceBundle;
-import java.util.concurrent.ExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.zlogic.voidreader.feed.FeedsState;
+import org.zlogic.voidreader.feed.UpdatePipeline;
+import org.zlogic.voidreader.fetcher.FeedFetcher;
+import org.zlogic.voidreader.fetcher.impl.URLConnectionFetcher;
+import org.zlogic.voidreader.fetcher.impl.URLFetchServiceFetcher;
 import org.zlogic.voidreader.handler.ErrorHandler;
 import org.zlogic.voidreader.handler.FeedItemHandler;
+import org.zlogic.voidreader.handler.impl.DigestEmailHandler;
 import org.zlogic.voidreader.handler.impl.DummyHandler;
 import org.zlogic.voidreader.handler.impl.EmailHandler;
+import org.zlogic.voidreader.queue.WorkQueue;
+import org.zlogic.voidreader.queue.WorkUnit;
+import org.zlogic.voidreader.queue.WorkUnitHandler;
+import org.zlogic.voidreader.queue.impl.LocalWorkQueue;
+import org.zlogic.voidreader.queue.impl.TaskQueueWorkQueue;
 
 /**
  * Class used to launch the feed download process
@@ -30,26 +46,199 @@ public class FeedDownloader {
 	 * Localization messages
 	 */
 	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/voidreader/messages");
+	/**
+	 * The logger
+	 */
+	private static final Logger log = LoggerFactory.getLogger(FeedDownloader.class);
+	/**
+	 * The maximum number of attempts to process a work unit in the local
+	 * queue
+	 */
+	private static final int LOCAL_QUEUE_ATTEMPTS = 3;
 
 	/**
-	 * Downloads feeds, handles new items, saves the feed state.
+	 * Downloads feeds, handles new items, saves the feed state. When using a
+	 * DummyHandler, all feeds are updated regardless of their polling
+	 * schedule.
 	 *
 	 * @param settings the user settings
 	 * @param dummyHandler true if a DummyHandler should be used instead of a
 	 * real email sender (EmailHandler)
 	 */
 	public void downloadFeeds(Settings settings, boolean dummyHandler) {
+		try {
+			FeedsState feedData = createFeedsState(settings, dummyHandler, true);
+			feedData.update(dummyHandler);
+		} catch (InterruptedException ex) {
+			throw new RuntimeException(messages.getString("ERROR_WHILE_DOWNLOADING_FEEDS"), ex);
+		} finally {
+			EmailHandler.closeTransportPool();
+		}
+	}
+
+	/**
+	 * Downloads feeds of multiple users, handles new items, saves the feed
+	 * state. All users share a single update pipeline, so that the users are
+	 * updated in parallel within the same concurrency limits, users with many
+	 * feeds don't delay other users, and feeds subscribed by several users are
+	 * downloaded once. A user whose OPML cannot be loaded is skipped.
+	 *
+	 * If a work queue is configured, feeds are not downloaded here; instead,
+	 * the due feeds of every user are split into work units and sent to the
+	 * queue.
+	 *
+	 * @param settingsList the settings of every user
+	 */
+	public void downloadFeeds(List<Settings> settingsList) {
+		if (settingsList.isEmpty())
+			return;
+		WorkQueue workQueue = createWorkQueue(settingsList.get(0));
+		if (workQueue != null) {
+			enqueueFeeds(settingsList, workQueue);
+			return;
+		}
+		UpdatePipeline pipeline = new UpdatePipeline(settingsList.get(0));
+		List<FeedsState> feedsStates = new ArrayList<>();
+		for (Settings settings : settingsList)
+			try {
+				FeedsState feedData = createFeedsState(settings, false, true);
+				feedData.prepareUpdate(pipeline, false);
+				feedsStates.add(feedData);
+			} catch (RuntimeException ex) {
+				log.error(MessageFormat.format(messages.getString("ERROR_WHILE_DOWNLOADING_FEEDS_FOR_USER"), new Object[]{settings.getUsername()}), ex);
+			}
+		try {
+			for (FeedsState feedData : feedsStates)
+				feedData.submitUpdate(pipeline);
+		} finally {
+			try {
+				pipeline.finish();
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(messages.getString("ERROR_WHILE_DOWNLOADING_FEEDS"), ex);
+			} finally {
+				EmailHandler.closeTransportPool();
+			}
+		}
+		for (FeedsState feedData : feedsStates)
+			try {
+				feedData.saveProgress();
+				feedData.logStatistics();
+			} catch (RuntimeException ex) {
+				log.error(messages.getString("ERROR_WHILE_DOWNLOADING_FEEDS"), ex);
+			}
+	}
+
+	/**
+	 * Splits the due feeds of every user into work units and sends them to a
+	 * work queue. A user whose OPML cannot be loaded is skipped.
+	 *
+	 * @param settingsList the settings of every user
+	 * @param workQueue the work queue
+	 */
+	private void enqueueFeeds(List<Settings> settingsList, WorkQueue workQueue) {
+		for (Settings settings : settingsList)
+			try {
+				List<Key> feedKeys = createFeedsState(settings, false, true).getDueFeedKeys();
+				for (int i = 0; i < feedKeys.size(); i += settings.getUpdateQueueBatchSize())
+					workQueue.add(new WorkUnit(settings.getUsername(), feedKeys.subList(i, Math.min(i + settings.getUpdateQueueBatchSize(), feedKeys.size()))));
+			} catch (RuntimeException ex) {
+				log.error(MessageFormat.format(messages.getString("ERROR_WHILE_DOWNLOADING_FEEDS_FOR_USER"), new Object[]{settings.getUsername()}), ex);
+			}
+		workQueue.flush();
+	}
+
+	/**
+	 * Processes a work unit: downloads its feeds, handles new items and saves
+	 * the feed state. The user's OPML is not reloaded; feeds which were removed
+	 * or are no longer due are skipped, as well as feeds which don't belong to
+	 * the unit's user.
+	 *
+	 * A user's feeds can be split into several work units, so a single digest
+	 * of all feeds cannot be sent; users who chose it get a digest for every
+	 * feed instead.
+	 *
+	 * @param unit the work unit
+	 * @throws RuntimeException if the unit didn't finish and should be retried
+	 */
+	public void processWorkUnit(WorkUnit unit) {
+		try {
+			Settings settings = Settings.load(unit.getUsername());
+			List<Key> feedKeys = new ArrayList<>(unit.getFeedKeys().size());
+			for (Key feedKey : unit.getFeedKeys())
+				if (settings.getKey().equals(feedKey.getParent()))
+					feedKeys.add(feedKey);
+				else
+					log.error(MessageFormat.format(messages.getString("WORK_UNIT_FEED_OF_ANOTHER_USER"), new Object[]{feedKey, unit.getUsername()}));
+			if ("user".equals(settings.getEmailDigest())) //NOI18N
+				log.warn(MessageFormat.format(messages.getString("USER_DIGEST_NOT_SUPPORTED_BY_QUEUE"), new Object[]{unit.getUsername()}));
+			FeedsState feedData = createFeedsState(settings, false, false);
+			if (!feedData.update(feedKeys))
+				throw new RuntimeException(MessageFormat.format(messages.getString("WORK_UNIT_INCOMPLETE"), new Object[]{unit}));
+		} catch (EntityNotFoundException ex) {
+			log.error(MessageFormat.format(messages.getString("ERROR_WHILE_DOWNLOADING_FEEDS_FOR_USER"), new Object[]{unit.getUsername()}), ex);
+		} catch (InterruptedException ex) {
+			throw new RuntimeException(messages.getString("ERROR_WHILE_DOWNLOADING_FEEDS"), ex);
+		} finally {
+			EmailHandler.closeTransportPool();
+		}
+	}
+
+	/**
+	 * Creates the WorkQueue configured in the settings
+	 *
+	 * @param settings the settings
+	 * @return the WorkQueue, or null if feeds should be updated without a
+	 * queue
+	 */
+	private WorkQueue createWorkQueue(Settings settings) {
+		switch (settings.getUpdateQueue()) {
+			case "task": //NOI18N
+				return new TaskQueueWorkQueue();
+			case "local": //NOI18N
+				return new LocalWorkQueue(new WorkUnitHandler() {
+
+					@Override
+					public void handle(WorkUnit unit) {
+						processWorkUnit(unit);
+					}
+				}, LOCAL_QUEUE_ATTEMPTS);
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Creates the FeedsState for a user and (optionally) updates its feeds
+	 * from the user's OPML data
+	 *
+	 * @param settings the user settings
+	 * @param dummyHandler true if a DummyHandler should be used instead of a
+	 * real email sender (EmailHandler or DigestEmailHandler)
+	 * @param updateOpml true if feeds should be updated from the OPML data;
+	 * false if the FeedsState processes a work unit, which also sends digests
+	 * for every feed instead of a single digest of all feeds
+	 * @return the FeedsState for the user
+	 */
+	private FeedsState createFeedsState(Settings settings, boolean dummyHandler, boolean updateOpml) {
 		try (Reader sourceReader = new StringReader(settings.getOpml())) {
 			FeedItemHandler feedItemHandler;
 			ErrorHandler errorHandler;
 			if (dummyHandler)
 				feedItemHandler = (FeedItemHandler) (errorHandler = new DummyHandler());
+			else if (!"none".equals(settings.getEmailDigest())) //NOI18N
+				feedItemHandler = (FeedItemHandler) (errorHandler = new DigestEmailHandler(settings, !updateOpml || "feed".equals(settings.getEmailDigest()))); //NOI18N
 			else
 				feedItemHandler = (FeedItemHandler) (errorHandler = new EmailHandler(settings));
-			FeedsState feedData = new FeedsState(settings, feedItemHandler, errorHandler);
-			feedData.updateOpml((Opml) new WireFeedInput().build(sourceReader));
-			feedData.update();
-		} catch (IOException | IllegalArgumentException | FeedException | InterruptedException | ExecutionException ex) {
+			FeedFetcher feedFetcher;
+			if (settings.isFeedAsyncFetch())
+				feedFetcher = new URLFetchServiceFetcher();
+			else
+				feedFetcher = new URLConnectionFetcher();
+			FeedsState feedData = new FeedsState(settings, feedItemHandler, errorHandler, feedFetcher);
+			if (updateOpml)
+				feedData.updateOpml((Opml) new WireFeedInput().build(sourceReader));
+			return feedData;
+		} catch (IOException | IllegalArgumentException | FeedException ex) {
 			throw new RuntimeException(messages.getString("ERROR_WHILE_DOWNLOADING_FEEDS"), ex);
 		}
 	}
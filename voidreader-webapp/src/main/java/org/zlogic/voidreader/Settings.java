@@ -17,6 +17,7 @@ import com.google.appengine.api.datastore.Text;
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
 import java.util.ResourceBundle;
@@ -45,6 +46,10 @@ public class Settings {
 	 * The DatastoreService instance
 	 */
 	private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+	/**
+	 * The supported email digest modes
+	 */
+	private static final List<String> emailDigestModes = Arrays.asList("none", "feed", "user"); //NOI18N
 	/**
 	 * The settings owner user
 	 */
@@ -57,6 +62,18 @@ public class Settings {
 	 * Email To address
 	 */
 	private String mailTo;
+	/**
+	 * The maximum number of parallel mail connections
+	 */
+	private int mailConnections;
+	/**
+	 * The maximum number of items in a single digest email
+	 */
+	private int mailDigestMaxItems;
+	/**
+	 * The maximum size of PDF attachments in a single digest email, in bytes
+	 */
+	private int mailDigestMaxBytes;
 	/**
 	 * Days to keep items after they're removed from the feed
 	 */
@@ -66,13 +83,15 @@ public class Settings {
 	 */
 	private boolean enablePdf;
 	/**
-	 * The OPML data
+	 * The digest mode: "none" to send an email for every item, "feed" to send
+	 * a digest of new items for every feed, or "user" to send a single digest
+	 * of all new items
 	 */
-	private String opml;
+	private String emailDigest = "none"; //NOI18N
 	/**
-	 * The thread pool size for Executor instances
+	 * The OPML data
 	 */
-	private int threadPoolSize = 50;
+	private String opml;
 	/**
 	 * Feed connect timeout
 	 */
@@ -81,6 +100,99 @@ public class Settings {
 	 * Feed read timeout
 	 */
 	private int feedReadTimeout;
+	/**
+	 * The number of consecutive known entries after which the streaming feed
+	 * parser stops reading a feed, or 0 if the streaming parser is disabled
+	 */
+	private int feedStreamingKnownEntries;
+	/**
+	 * Use the asynchronous URL Fetch service instead of URLConnection to
+	 * download feeds
+	 */
+	private boolean feedAsyncFetch;
+	/**
+	 * The maximum number of feed downloads in flight
+	 */
+	private int feedMaxInFlight;
+	/**
+	 * The minimum limit of feed downloads in flight
+	 */
+	private int feedMinInFlight;
+	/**
+	 * The maximum number of concurrent feed downloads per host
+	 */
+	private int feedMaxPerHost;
+	/**
+	 * The minimum feed polling interval in minutes
+	 */
+	private int feedMinPollInterval;
+	/**
+	 * The maximum feed polling interval in minutes
+	 */
+	private int feedMaxPollInterval;
+	/**
+	 * The number of consecutive failed updates after which a feed's circuit
+	 * breaker is tripped
+	 */
+	private int feedFailureThreshold;
+	/**
+	 * The maximum backoff period for failing feeds in minutes
+	 */
+	private int feedMaxBackoff;
+	/**
+	 * The maximum number of entities in a single Datastore batch write
+	 */
+	private int datastoreBatchSize;
+	/**
+	 * The number of days after which items are moved from the exact set into
+	 * the seen filter, or 0 if the seen filter is disabled
+	 */
+	private int feedSeenFilterDays;
+	/**
+	 * The false positive rate of a seen filter generation
+	 */
+	private double feedSeenFilterFalsePositiveRate;
+	/**
+	 * The number of threads parsing downloaded feeds
+	 */
+	private int pipelineParseThreads;
+	/**
+	 * The number of threads rendering feed items
+	 */
+	private int pipelineRenderThreads;
+	/**
+	 * The maximum number of threads delivering feed items
+	 */
+	private int pipelineDeliverThreads;
+	/**
+	 * The minimum number of threads delivering feed items
+	 */
+	private int pipelineMinDeliverThreads;
+	/**
+	 * The maximum number of feed items waiting in the queue of a pipeline
+	 * stage
+	 */
+	private int pipelineQueueSize;
+	/**
+	 * The remaining request time in seconds at which an update stops starting
+	 * new feeds
+	 */
+	private int updateStopMargin;
+	/**
+	 * The remaining request time in seconds at which an update cancels
+	 * unfinished feeds and saves its progress
+	 */
+	private int updateCancelMargin;
+	/**
+	 * The queue for distributing update work: "none" to update all users in
+	 * the cron request, "task" for the App Engine push queue or "local" for
+	 * the in-process queue
+	 */
+	private String updateQueue;
+	/**
+	 * The maximum number of feeds in a single update work unit
+	 */
+	private int updateQueueBatchSize;
 
 	/**
 	 * Default constructor
@@ -90,8 +202,32 @@ public class Settings {
 		try {
 			properties.load(getClass().getResourceAsStream("/settings.properties")); //NOI18N
 			mailFrom = new InternetAddress(properties.getProperty("email.from")).toString(); //NOI18N
+			mailConnections = Integer.parseInt(properties.getProperty("email.connections", "4")); //NOI18N
+			mailDigestMaxItems = Integer.parseInt(properties.getProperty("email.digest_max_items", "50")); //NOI18N
+			mailDigestMaxBytes = Integer.parseInt(properties.getProperty("email.digest_max_bytes", "10485760")); //NOI18N
 			feedConnectTimeout = Integer.parseInt(properties.getProperty("feed.connect_timeout", "30000")); //NOI18N
 			feedReadTimeout = Integer.parseInt(properties.getProperty("feed.read_timeout", "15000")); //NOI18N
+			feedStreamingKnownEntries = Integer.parseInt(properties.getProperty("feed.streaming_known_entries", "0")); //NOI18N
+			feedAsyncFetch = Boolean.parseBoolean(properties.getProperty("feed.async_fetch", Boolean.toString(feedStreamingKnownEntries <= 0))); //NOI18N
+			feedMaxInFlight = Integer.parseInt(properties.getProperty("feed.max_in_flight", "200")); //NOI18N
+			feedMinInFlight = Integer.parseInt(properties.getProperty("feed.min_in_flight", "20")); //NOI18N
+			feedMaxPerHost = Integer.parseInt(properties.getProperty("feed.max_per_host", "4")); //NOI18N
+			feedMinPollInterval = Integer.parseInt(properties.getProperty("feed.min_poll_interval", "60")); //NOI18N
+			feedMaxPollInterval = Integer.parseInt(properties.getProperty("feed.max_poll_interval", "1440")); //NOI18N
+			feedFailureThreshold = Integer.parseInt(properties.getProperty("feed.failure_threshold", "3")); //NOI18N
+			feedMaxBackoff = Integer.parseInt(properties.getProperty("feed.max_backoff", "10080")); //NOI18N
+			datastoreBatchSize = Integer.parseInt(properties.getProperty("datastore.batch_size", "500")); //NOI18N
+			feedSeenFilterDays = Integer.parseInt(properties.getProperty("feed.seen_filter_days", "0")); //NOI18N
+			feedSeenFilterFalsePositiveRate = Double.parseDouble(properties.getProperty("feed.seen_filter_fpp", "0.001")); //NOI18N
+			pipelineParseThreads = Integer.parseInt(properties.getProperty("pipeline.parse_threads", "4")); //NOI18N
+			pipelineRenderThreads = Integer.parseInt(properties.getProperty("pipeline.render_threads", "4")); //NOI18N
+			pipelineDeliverThreads = Integer.parseInt(properties.getProperty("pipeline.deliver_threads", "40")); //NOI18N
+			pipelineMinDeliverThreads = Integer.parseInt(properties.getProperty("pipeline.min_deliver_threads", "4")); //NOI18N
+			pipelineQueueSize = Integer.parseInt(properties.getProperty("pipeline.queue_size", "100")); //NOI18N
+			updateStopMargin = Integer.parseInt(properties.getProperty("update.stop_margin", "60")); //NOI18N
+			updateCancelMargin = Integer.parseInt(properties.getProperty("update.cancel_margin", "20")); //NOI18N
+			updateQueue = properties.getProperty("update.queue", "none"); //NOI18N
+			updateQueueBatchSize = Integer.parseInt(properties.getProperty("update.queue_batch_size", "50")); //NOI18N
 		} catch (AddressException | IOException ex) {
 			throw new RuntimeException(ex);
 		}
@@ -115,6 +251,7 @@ public class Settings {
 
 		cacheExpireDays = Integer.parseInt(properties.getProperty("cache.expire_days", "3")); //NOI18N
 		enablePdf = properties.getProperty("pdf.enable", "false").equals("on"); //NOI18N
+		emailDigest = validateEmailDigest(properties.getProperty("email.digest", "none")); //NOI18N
 		feedConnectTimeout = Integer.parseInt(properties.getProperty("feed.connect_timeout", "30000")); //NOI18N
 		feedReadTimeout = Integer.parseInt(properties.getProperty("feed.read_timeout", "15000")); //NOI18N
 	}
@@ -129,6 +266,8 @@ public class Settings {
 		username = entity.getKey().getName();
 		mailTo = ((Email) entity.getProperty("mailTo")).getEmail(); //NOI18N
 		enablePdf = ((Boolean) entity.getProperty("enablePdf")); //NOI18N
+		if (entity.hasProperty("emailDigest")) //NOI18N
+			emailDigest = validateEmailDigest((String) entity.getProperty("emailDigest")); //NOI18N
 		cacheExpireDays = ((Long) entity.getProperty("cacheExpireDays")).intValue(); //NOI18N
 		opml = ((Text) entity.getProperty("opml")).getValue(); //NOI18N
 		feedConnectTimeout = ((Long) entity.getProperty("feedConnectTimeout")).intValue(); //NOI18N
@@ -163,6 +302,19 @@ public class Settings {
 		return new Settings(entity);
 	}
 
+	/**
+	 * Checks that an email digest mode is supported
+	 *
+	 * @param emailDigest the email digest mode
+	 * @return the email digest mode, or "none" if the mode is not supported
+	 */
+	private String validateEmailDigest(String emailDigest) {
+		if (emailDigestModes.contains(emailDigest))
+			return emailDigest;
+		log.warn(MessageFormat.format(messages.getString("UNSUPPORTED_EMAIL_DIGEST_MODE"), new Object[]{emailDigest, username}));
+		return "none"; //NOI18N
+	}
+
 	/**
 	 * Saves the Settings into Datastore.
 	 */
@@ -170,6 +322,7 @@ public class Settings {
 		Entity settings = new Entity(getKey());
 		settings.setUnindexedProperty("mailTo", new Email(mailTo)); //NOI18N
 		settings.setUnindexedProperty("enablePdf", enablePdf); //NOI18N
+		settings.setUnindexedProperty("emailDigest", emailDigest); //NOI18N
 		settings.setUnindexedProperty("cacheExpireDays", cacheExpireDays); //NOI18N
 		settings.setUnindexedProperty("opml", new Text(opml)); //NOI18N
 		settings.setUnindexedProperty("feedConnectTimeout", feedConnectTimeout); //NOI18N
@@ -206,6 +359,17 @@ public class Settings {
 		return enablePdf;
 	}
 
+	/**
+	 * Returns the digest mode: "none" to send an email for every item, "feed"
+	 * to send a digest of new items for every feed, or "user" to send a single
+	 * digest of all new items
+	 *
+	 * @return the digest mode
+	 */
+	public String getEmailDigest() {
+		return emailDigest;
+	}
+
 	/**
 	 * Returns the email From address
 	 *
@@ -232,6 +396,34 @@ public class Settings {
 		}
 	}
 
+	/**
+	 * Returns the maximum number of parallel mail connections
+	 *
+	 * @return the maximum number of parallel mail connections
+	 */
+	public int getMailConnections() {
+		return mailConnections;
+	}
+
+	/**
+	 * Returns the maximum number of items in a single digest email
+	 *
+	 * @return the maximum number of items in a single digest email
+	 */
+	public int getMailDigestMaxItems() {
+		return mailDigestMaxItems;
+	}
+
+	/**
+	 * Returns the maximum size of PDF attachments in a single digest email,
+	 * in bytes
+	 *
+	 * @return the maximum size of PDF attachments in a single digest email
+	 */
+	public int getMailDigestMaxBytes() {
+		return mailDigestMaxBytes;
+	}
+
 	/**
 	 * Returns the username for these Settings.
 	 *
@@ -250,15 +442,6 @@ public class Settings {
 		return opml;
 	}
 
-	/**
-	 * Returns the thread pool size for Executor instances.
-	 *
-	 * @return the thread pool size for Executor instances
-	 */
-	public int getThreadPoolSize() {
-		return threadPoolSize;
-	}
-
 	/**
 	 * Returns the feed connect timeout
 	 *
@@ -277,10 +460,219 @@ public class Settings {
 		return feedReadTimeout;
 	}
 
+	/**
+	 * Returns the number of consecutive known entries after which the
+	 * streaming feed parser stops reading a feed, or 0 if the streaming parser
+	 * is disabled
+	 *
+	 * @return the number of consecutive known entries after which the
+	 * streaming feed parser stops reading a feed
+	 */
+	public int getFeedStreamingKnownEntries() {
+		return feedStreamingKnownEntries;
+	}
+
+	/**
+	 * Returns true if the asynchronous URL Fetch service should be used instead
+	 * of URLConnection to download feeds. The URL Fetch service buffers the
+	 * whole response, so the streaming parser only avoids downloading the rest
+	 * of a feed with URLConnection; unless configured explicitly, this is
+	 * false when the streaming parser is enabled.
+	 *
+	 * @return true if the asynchronous URL Fetch service should be used to
+	 * download feeds
+	 */
+	public boolean isFeedAsyncFetch() {
+		return feedAsyncFetch;
+	}
+
+	/**
+	 * Returns the maximum number of feed downloads in flight
+	 *
+	 * @return the maximum number of feed downloads in flight
+	 */
+	public int getFeedMaxInFlight() {
+		return feedMaxInFlight;
+	}
+
+	/**
+	 * Returns the minimum limit of feed downloads in flight
+	 *
+	 * @return the minimum limit of feed downloads in flight
+	 */
+	public int getFeedMinInFlight() {
+		return feedMinInFlight;
+	}
+
+	/**
+	 * Returns the maximum number of concurrent feed downloads per host
+	 *
+	 * @return the maximum number of concurrent feed downloads per host
+	 */
+	public int getFeedMaxPerHost() {
+		return feedMaxPerHost;
+	}
+
+	/**
+	 * Returns the minimum feed polling interval in minutes
+	 *
+	 * @return the minimum feed polling interval in minutes
+	 */
+	public int getFeedMinPollInterval() {
+		return feedMinPollInterval;
+	}
+
+	/**
+	 * Returns the maximum feed polling interval in minutes
+	 *
+	 * @return the maximum feed polling interval in minutes
+	 */
+	public int getFeedMaxPollInterval() {
+		return feedMaxPollInterval;
+	}
+
+	/**
+	 * Returns the number of consecutive failed updates after which a feed's
+	 * circuit breaker is tripped
+	 *
+	 * @return the number of consecutive failed updates after which a feed's
+	 * circuit breaker is tripped
+	 */
+	public int getFeedFailureThreshold() {
+		return feedFailureThreshold;
+	}
+
+	/**
+	 * Returns the maximum backoff period for failing feeds in minutes
+	 *
+	 * @return the maximum backoff period for failing feeds in minutes
+	 */
+	public int getFeedMaxBackoff() {
+		return feedMaxBackoff;
+	}
+
+	/**
+	 * Returns the maximum number of entities in a single Datastore batch write
+	 *
+	 * @return the maximum number of entities in a single Datastore batch write
+	 */
+	public int getDatastoreBatchSize() {
+		return datastoreBatchSize;
+	}
+
+	/**
+	 * Returns the number of days after which items are moved from the exact
+	 * set into the seen filter
+	 *
+	 * @return the number of days after which items are moved into the seen
+	 * filter, or 0 if the seen filter is disabled
+	 */
+	public int getFeedSeenFilterDays() {
+		return feedSeenFilterDays;
+	}
+
+	/**
+	 * Returns the false positive rate of a seen filter generation
+	 *
+	 * @return the false positive rate of a seen filter generation
+	 */
+	public double getFeedSeenFilterFalsePositiveRate() {
+		return feedSeenFilterFalsePositiveRate;
+	}
+
+	/**
+	 * Returns the number of threads parsing downloaded feeds
+	 *
+	 * @return the number of threads parsing downloaded feeds
+	 */
+	public int getPipelineParseThreads() {
+		return pipelineParseThreads;
+	}
+
+	/**
+	 * Returns the number of threads rendering feed items
+	 *
+	 * @return the number of threads rendering feed items
+	 */
+	public int getPipelineRenderThreads() {
+		return pipelineRenderThreads;
+	}
+
+	/**
+	 * Returns the maximum number of threads delivering feed items
+	 *
+	 * @return the maximum number of threads delivering feed items
+	 */
+	public int getPipelineDeliverThreads() {
+		return pipelineDeliverThreads;
+	}
+
+	/**
+	 * Returns the minimum number of threads delivering feed items
+	 *
+	 * @return the minimum number of threads delivering feed items
+	 */
+	public int getPipelineMinDeliverThreads() {
+		return pipelineMinDeliverThreads;
+	}
+
+	/**
+	 * Returns the maximum number of feed items waiting in the queue of a
+	 * pipeline stage
+	 *
+	 * @return the maximum number of feed items waiting in the queue of a
+	 * pipeline stage
+	 */
+	public int getPipelineQueueSize() {
+		return pipelineQueueSize;
+	}
+
+	/**
+	 * Returns the remaining request time in seconds at which an update stops
+	 * starting new feeds
+	 *
+	 * @return the remaining request time in seconds at which an update stops
+	 * starting new feeds
+	 */
+	public int getUpdateStopMargin() {
+		return updateStopMargin;
+	}
+
+	/**
+	 * Returns the remaining request time in seconds at which an update
+	 * cancels unfinished feeds and saves its progress
+	 *
+	 * @return the remaining request time in seconds at which an update
+	 * cancels unfinished feeds and saves its progress
+	 */
+	public int getUpdateCancelMargin() {
+		return updateCancelMargin;
+	}
+
+	/**
+	 * Returns the queue for distributing update work: "none" to update all
+	 * users in the cron request, "task" for the App Engine push queue or
+	 * "local" for the in-process queue
+	 *
+	 * @return the queue for distributing update work
+	 */
+	public String getUpdateQueue() {
+		return updateQueue;
+	}
+
+	/**
+	 * Returns the maximum number of feeds in a single update work unit
+	 *
+	 * @return the maximum number of feeds in a single update work unit
+	 */
+	public int getUpdateQueueBatchSize() {
+		return updateQueueBatchSize;
+	}
+
 	@Override
 	public String toString() {
 		return MessageFormat.format(messages.getString("SETTINGS_TOSTRING_FORMAT"),
-				username, cacheExpireDays, enablePdf, mailFrom, mailTo, threadPoolSize, feedConnectTimeout, feedReadTimeout, opml);
+				username, cacheExpireDays, enablePdf, mailFrom, mailTo, pipelineParseThreads, pipelineRenderThreads, pipelineDeliverThreads, feedConnectTimeout, feedReadTimeout, emailDigest, opml);
 	}
 
 }
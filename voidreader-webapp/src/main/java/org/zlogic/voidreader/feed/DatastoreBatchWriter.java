@@ -0,0 +1,154 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.feed;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-behind batcher for Datastore entities. Collects entities from multiple
+ * threads and writes them with asynchronous batch puts, so that threads don't
+ * wait for Datastore round-trips. Call flush to write the remaining entities
+ * and wait until all writes are complete. If a write fails, flush runs the
+ * failure callbacks of its entities, so that they can be marked as unsaved.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class DatastoreBatchWriter {
+
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/voidreader/messages");
+	/**
+	 * The logger
+	 */
+	private static final Logger log = LoggerFactory.getLogger(DatastoreBatchWriter.class);
+	/**
+	 * The AsyncDatastoreService instance
+	 */
+	private static final AsyncDatastoreService datastore = DatastoreServiceFactory.getAsyncDatastoreService();
+	/**
+	 * The maximum number of entities in a single batch
+	 */
+	private final int batchSize;
+	/**
+	 * Entities which were not written yet
+	 */
+	private List<Entity> pendingEntities = new ArrayList<>();
+	/**
+	 * Failure callbacks of entities which were not written yet
+	 */
+	private List<Runnable> pendingCallbacks = new ArrayList<>();
+	/**
+	 * Writes in progress
+	 */
+	private final List<Future<?>> pendingWrites = new ArrayList<>();
+	/**
+	 * Failure callbacks of writes in progress
+	 */
+	private final Map<Future<?>, List<Runnable>> writeCallbacks = new HashMap<>();
+
+	/**
+	 * Constructs a DatastoreBatchWriter
+	 *
+	 * @param batchSize the maximum number of entities in a single batch
+	 */
+	public DatastoreBatchWriter(int batchSize) {
+		this.batchSize = Math.max(batchSize, 1);
+	}
+
+	/**
+	 * Adds an entity to be written. Starts an asynchronous batch put once
+	 * enough entities are collected.
+	 *
+	 * @param entity the entity to write
+	 */
+	public synchronized void put(Entity entity) {
+		put(entity, null);
+	}
+
+	/**
+	 * Adds an entity to be written. Starts an asynchronous batch put once
+	 * enough entities are collected.
+	 *
+	 * @param entity the entity to write
+	 * @param failureCallback the callback which will be run by flush if the
+	 * entity cannot be written, or null
+	 */
+	public synchronized void put(Entity entity, Runnable failureCallback) {
+		pendingEntities.add(entity);
+		if (failureCallback != null)
+			pendingCallbacks.add(failureCallback);
+		if (pendingEntities.size() >= batchSize)
+			startPut();
+	}
+
+	/**
+	 * Starts asynchronous batch deletes of entities
+	 *
+	 * @param keys the keys of entities to delete
+	 */
+	public synchronized void delete(List<Key> keys) {
+		for (int i = 0; i < keys.size(); i += batchSize)
+			pendingWrites.add(datastore.delete(new ArrayList<>(keys.subList(i, Math.min(i + batchSize, keys.size())))));
+	}
+
+	/**
+	 * Writes all remaining entities and waits until all writes are complete.
+	 * Runs the failure callbacks of entities which could not be written.
+	 *
+	 * @throws InterruptedException if the thread was interrupted while waiting
+	 */
+	public void flush() throws InterruptedException {
+		List<Future<?>> writes;
+		Map<Future<?>, List<Runnable>> callbacks;
+		synchronized (this) {
+			if (!pendingEntities.isEmpty())
+				startPut();
+			writes = new ArrayList<>(pendingWrites);
+			pendingWrites.clear();
+			callbacks = new HashMap<>(writeCallbacks);
+			writeCallbacks.clear();
+		}
+		ExecutionException failure = null;
+		for (Future<?> write : writes)
+			try {
+				write.get();
+			} catch (ExecutionException ex) {
+				log.error(messages.getString("CANNOT_WRITE_TO_DATASTORE"), ex.getCause());
+				failure = ex;
+				if (callbacks.containsKey(write))
+					for (Runnable callback : callbacks.get(write))
+						callback.run();
+			}
+		if (failure != null)
+			throw new RuntimeException(messages.getString("CANNOT_WRITE_TO_DATASTORE"), failure.getCause());
+	}
+
+	/**
+	 * Starts an asynchronous put of pending entities
+	 */
+	private void startPut() {
+		Future<?> write = datastore.put(pendingEntities);
+		pendingWrites.add(write);
+		if (!pendingCallbacks.isEmpty())
+			writeCallbacks.put(write, pendingCallbacks);
+		pendingEntities = new ArrayList<>();
+		pendingCallbacks = new ArrayList<>();
+	}
+}
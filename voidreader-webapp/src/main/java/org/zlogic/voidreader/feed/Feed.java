@@ -5,6 +5,7 @@
  */
 package org.zlogic.voidreader.feed;
 
+import com.google.appengine.api.datastore.Blob;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.EmbeddedEntity;
@@ -12,32 +13,37 @@ import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.PropertyContainer;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Text;
 import com.rometools.rome.feed.synd.SyndEntry;
 import com.rometools.rome.feed.synd.SyndFeed;
 import com.rometools.rome.io.SyndFeedInput;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URL;
-import java.net.URLConnection;
-import java.nio.charset.Charset;
+import java.io.Reader;
 import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.ResourceBundle;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.lang3.time.DateUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.zlogic.voidreader.Settings;
-import org.zlogic.voidreader.handler.FeedItemHandler;
+import org.zlogic.voidreader.fetcher.FeedFetcher;
+import org.zlogic.voidreader.fetcher.FeedRequest;
+import org.zlogic.voidreader.fetcher.FeedResponse;
 
 /**
  * A single RSS feed representation (with a cached list of feed items). Contains
@@ -69,7 +75,7 @@ public class Feed {
 	/**
 	 * The feed items
 	 */
-	private Set<FeedItem> items;
+	private FeedItems items;
 	/**
 	 * The feed title, as presented in the RSS download results
 	 */
@@ -82,6 +88,76 @@ public class Feed {
 	 * The feed title, as presented in the OPML file
 	 */
 	private List<String> userTitle;
+	/**
+	 * The ETag returned by the server for the last processed download
+	 */
+	private String etag;
+	/**
+	 * The Last-Modified date returned by the server for the last processed
+	 * download
+	 */
+	private String lastModified;
+	/**
+	 * The ETag of the current download, which will be kept once its new items
+	 * are delivered
+	 */
+	private String pendingEtag;
+	/**
+	 * The Last-Modified date of the current download, which will be kept once
+	 * its new items are delivered
+	 */
+	private String pendingLastModified;
+	/**
+	 * Items of the current download which were never sent and have to be
+	 * delivered before its validators are kept, or null if there's no pending
+	 * download
+	 */
+	private List<FeedItem> pendingItems;
+	/**
+	 * The date this feed was last checked for new items
+	 */
+	private Date lastChecked;
+	/**
+	 * The date new items last appeared in this feed
+	 */
+	private Date lastChanged;
+	/**
+	 * The moving average of the time between appearances of new items, in
+	 * milliseconds, or 0 if unknown
+	 */
+	private long changeInterval;
+	/**
+	 * The number of consecutive checks which found no new items (including
+	 * "not modified" responses)
+	 */
+	private int unchangedCount;
+	/**
+	 * The date when this feed should be checked next
+	 */
+	private Date nextUpdate;
+	/**
+	 * Items which were seen too long ago to be kept in items, or null if
+	 * there are no such items
+	 */
+	private SeenFilter seenFilter;
+	/**
+	 * True if this feed was changed since it was loaded or saved (not
+	 * including changes in items)
+	 */
+	private boolean dirty;
+	/**
+	 * The number of consecutive failed updates
+	 */
+	private int failureCount;
+	/**
+	 * The date until which this feed is not updated because of repeated
+	 * failures, or null
+	 */
+	private Date backoffUntil;
+	/**
+	 * The error message of the last failed update, or null
+	 */
+	private String lastError;
 	/**
 	 * The user settings
 	 */
@@ -103,9 +179,10 @@ public class Feed {
 	 */
 	protected Feed(String url, List<String> userTitle, Settings settings) {
 		this.url = url;
-		this.items = Collections.synchronizedSet(new HashSet<FeedItem>());
+		this.items = new FeedItems();
 		this.userTitle = new ArrayList<>(userTitle);
 		this.settings = settings;
+		this.dirty = true;
 	}
 
 	/**
@@ -117,14 +194,48 @@ public class Feed {
 	 */
 	private Feed(Entity entity, Settings settings) {
 		this.url = entity.getKey().getName();
-		this.items = Collections.synchronizedSet(new HashSet<FeedItem>());
-		List<EmbeddedEntity> savedItems = (List<EmbeddedEntity>) entity.getProperty("items"); //NOI18N
-		if (savedItems != null)
-			for (EmbeddedEntity item : savedItems)
-				this.items.add(new FeedItem(this, item));
+		List<String> savedUserTitle = (List<String>) entity.getProperty("userTitle"); //NOI18N
+		this.userTitle = savedUserTitle != null ? new ArrayList<>(savedUserTitle) : new ArrayList<String>();
+		this.items = new FeedItems();
+		loadItems(entity);
+		if (entity.hasProperty("seenFilter")) //NOI18N
+			this.seenFilter = new SeenFilter(((Blob) entity.getProperty("seenFilter")).getBytes(), settings.getFeedSeenFilterFalsePositiveRate()); //NOI18N
+		this.etag = (String) entity.getProperty("etag"); //NOI18N
+		this.lastModified = (String) entity.getProperty("lastModified"); //NOI18N
+		this.lastChecked = (Date) entity.getProperty("lastChecked"); //NOI18N
+		this.lastChanged = (Date) entity.getProperty("lastChanged"); //NOI18N
+		this.changeInterval = entity.hasProperty("changeInterval") ? (Long) entity.getProperty("changeInterval") : 0; //NOI18N
+		this.unchangedCount = entity.hasProperty("unchangedCount") ? ((Long) entity.getProperty("unchangedCount")).intValue() : 0; //NOI18N
+		this.nextUpdate = (Date) entity.getProperty("nextUpdate"); //NOI18N
+		this.failureCount = entity.hasProperty("failureCount") ? ((Long) entity.getProperty("failureCount")).intValue() : 0; //NOI18N
+		this.backoffUntil = (Date) entity.getProperty("backoffUntil"); //NOI18N
+		this.lastError = entity.hasProperty("lastError") ? ((Text) entity.getProperty("lastError")).getValue() : null; //NOI18N
 		this.settings = settings;
 	}
 
+	/**
+	 * Loads the cached items from a Datastore entity. Items saved in the
+	 * legacy format (a list of embedded entities) are converted, and this feed
+	 * is marked as changed so that they're saved in the packed format.
+	 *
+	 * @param entity the Datastore entity
+	 */
+	void loadItems(PropertyContainer entity) {
+		if (entity.hasProperty("itemState")) { //NOI18N
+			for (FeedItem feedItem : FeedItemsCodec.decode(this, ((Blob) entity.getProperty("itemState")).getBytes())) //NOI18N
+				items.put(feedItem);
+		} else {
+			//Items saved in the legacy format
+			List<EmbeddedEntity> savedItems = (List<EmbeddedEntity>) entity.getProperty("items"); //NOI18N
+			if (savedItems != null)
+				for (EmbeddedEntity item : savedItems) {
+					FeedItem feedItem = new FeedItem(this, item);
+					items.put(feedItem);
+				}
+			dirty = savedItems != null;
+		}
+	}
+
 	/**
 	 * Loads all Feed instances for user from Datastore.
 	 *
@@ -140,6 +251,26 @@ public class Feed {
 		return feeds;
 	}
 
+	/**
+	 * Loads all Feed instances for user which had at least
+	 * feed.failure_threshold consecutive failed updates. The failure count is
+	 * only indexed for such feeds, so feeds which are below the threshold
+	 * don't take space in the index.
+	 *
+	 * @param settings the user Settings
+	 * @return the list of all Feed instances for user which had repeated
+	 * failed updates
+	 */
+	public static List<Feed> loadFailing(Settings settings) {
+		List<Feed> feeds = new ArrayList<>();
+		Query query = new Query(Feed.class.getSimpleName(), settings.getKey())
+				.setFilter(new Query.FilterPredicate("failureCount", Query.FilterOperator.GREATER_THAN_OR_EQUAL, settings.getFeedFailureThreshold())); //NOI18N
+		PreparedQuery preparedQuery = datastore.prepare(query);
+		for (Entity result : preparedQuery.asIterable())
+			feeds.add(new Feed(result, settings));
+		return feeds;
+	}
+
 	/**
 	 * Loads a Feed instance for user from Datastore.
 	 *
@@ -153,24 +284,165 @@ public class Feed {
 	}
 
 	/**
-	 * Sets feed items from another Feed.
+	 * Loads Feed instances for user from Datastore with a single batch get.
+	 *
+	 * @param keys the feed keys
+	 * @param settings the user Settings
+	 * @return the feeds which were found, by their key
+	 */
+	public static Map<Key, Feed> load(Collection<Key> keys, Settings settings) {
+		Map<Key, Feed> feeds = new HashMap<>();
+		for (Map.Entry<Key, Entity> entity : datastore.get(keys).entrySet())
+			feeds.put(entity.getKey(), new Feed(entity.getValue(), settings));
+		return feeds;
+	}
+
+	/**
+	 * Loads the keys of all Feed instances for user from Datastore.
+	 *
+	 * @param settings the user Settings
+	 * @return the list of keys of all Feed instances for user
+	 */
+	public static List<Key> loadKeys(Settings settings) {
+		List<Key> keys = new ArrayList<>();
+		Query query = new Query(Feed.class.getSimpleName(), settings.getKey()).setKeysOnly();
+		for (Entity result : datastore.prepare(query).asIterable())
+			keys.add(result.getKey());
+		return keys;
+	}
+
+	/**
+	 * Sets feed items, HTTP cache validators and polling statistics from
+	 * another Feed. This feed needs to be saved if the other feed had unsaved
+	 * changes or a different title.
 	 *
 	 * @param feed the feed from which to copy feed items
 	 */
 	public void useItemsFrom(Feed feed) {
 		items = feed.items;
+		seenFilter = feed.seenFilter;
+		etag = feed.etag;
+		lastModified = feed.lastModified;
+		lastChecked = feed.lastChecked;
+		lastChanged = feed.lastChanged;
+		changeInterval = feed.changeInterval;
+		unchangedCount = feed.unchangedCount;
+		nextUpdate = feed.nextUpdate;
+		failureCount = feed.failureCount;
+		backoffUntil = feed.backoffUntil;
+		lastError = feed.lastError;
+		dirty = feed.dirty || !userTitle.equals(feed.userTitle);
+	}
+
+	/**
+	 * Returns true if this feed or any of its items was changed since it was
+	 * loaded or saved
+	 *
+	 * @return true if this feed needs to be saved
+	 */
+	public boolean isDirty() {
+		if (dirty)
+			return true;
+		synchronized (items) {
+			for (FeedItem item : items.values())
+				if (item.isDirty())
+					return true;
+		}
+		return false;
 	}
 
 	/**
-	 * Saves this Feed instance to Datastore.
+	 * Saves this Feed instance to Datastore, if it was changed since it was
+	 * loaded or saved.
 	 */
 	public void save() {
-		List<EmbeddedEntity> embeddedEntities = new ArrayList<>();
-		for (FeedItem item : items)
-			embeddedEntities.add(item.getEntity());
+		commitValidators();
+		if (!isDirty())
+			return;
+		datastore.put(createEntity());
+		clearDirty();
+	}
+
+	/**
+	 * Queues this Feed instance to be saved to Datastore by a
+	 * DatastoreBatchWriter, if it was changed since it was loaded or saved.
+	 *
+	 * @param writer the DatastoreBatchWriter which will save this feed
+	 */
+	public void save(DatastoreBatchWriter writer) {
+		save(writer, null);
+	}
+
+	/**
+	 * Queues this Feed instance to be saved to Datastore by a
+	 * DatastoreBatchWriter, if it was changed since it was loaded or saved. If
+	 * the write fails, this feed is marked as changed again when the writer
+	 * is flushed.
+	 *
+	 * @param writer the DatastoreBatchWriter which will save this feed
+	 * @param failureCallback the callback which will be run if the write
+	 * fails, or null
+	 */
+	public void save(DatastoreBatchWriter writer, Runnable failureCallback) {
+		commitValidators();
+		if (!isDirty())
+			return;
+		writer.put(createEntity(), new Runnable() {
+			private Runnable failureCallback;
+
+			public Runnable setParameters(Runnable failureCallback) {
+				this.failureCallback = failureCallback;
+				return this;
+			}
+
+			@Override
+			public void run() {
+				dirty = true;
+				if (failureCallback != null)
+					failureCallback.run();
+			}
+		}.setParameters(failureCallback));
+		clearDirty();
+	}
+
+	/**
+	 * Creates a Datastore Entity for this Feed instance
+	 *
+	 * @return the Datastore Entity for this Feed instance
+	 */
+	private Entity createEntity() {
+		byte[] itemState;
+		synchronized (items) {
+			itemState = FeedItemsCodec.encode(items.values());
+		}
 		Entity feed = new Entity(getKey());
-		feed.setUnindexedProperty("items", embeddedEntities); //NOI18N
-		datastore.put(feed);
+		feed.setUnindexedProperty("userTitle", userTitle); //NOI18N
+		feed.setUnindexedProperty("itemState", new Blob(itemState)); //NOI18N
+		if (seenFilter != null && !seenFilter.isEmpty())
+			feed.setUnindexedProperty("seenFilter", new Blob(seenFilter.toByteArray())); //NOI18N
+		feed.setUnindexedProperty("etag", etag); //NOI18N
+		feed.setUnindexedProperty("lastModified", lastModified); //NOI18N
+		feed.setUnindexedProperty("lastChecked", lastChecked); //NOI18N
+		feed.setUnindexedProperty("lastChanged", lastChanged); //NOI18N
+		feed.setUnindexedProperty("changeInterval", changeInterval); //NOI18N
+		feed.setUnindexedProperty("unchangedCount", unchangedCount); //NOI18N
+		feed.setUnindexedProperty("nextUpdate", nextUpdate); //NOI18N
+		if (failureCount >= settings.getFeedFailureThreshold())
+			feed.setProperty("failureCount", failureCount); //NOI18N
+		else
+			feed.setUnindexedProperty("failureCount", failureCount); //NOI18N
+		feed.setUnindexedProperty("backoffUntil", backoffUntil); //NOI18N
+		feed.setUnindexedProperty("lastError", lastError != null ? new Text(lastError) : null); //NOI18N
+		return feed;
+	}
+
+	/**
+	 * Marks this feed and its items as saved
+	 */
+	private void clearDirty() {
+		dirty = false;
+		for (FeedItem item : items.values())
+			item.clearDirty();
 	}
 
 	/**
@@ -194,105 +466,316 @@ public class Feed {
 	}
 
 	/**
-	 * Handles downloaded feed entries
+	 * Merges downloaded feed entries into the cached items. If the entries
+	 * are incomplete (the parser stopped early), cached items which were not
+	 * downloaded might still be in the feed, so items are not expired or
+	 * archived.
 	 *
 	 * @param entries the downloaded entries
-	 * @param handler the feed item handler
 	 * @param cacheExpiryDate the date after which feed items expire and can be
 	 * removed
-	 * @param executor the ExecutorService instance to process asynchronous
-	 * tasks
-	 * @throws IOException if FeedItem constructor fails (e.g. unable to
-	 * generate HTML based on the template)
-	 * @throws InterruptedException if the task was interrupted
-	 * @throws ExecutionException if the task threw an exception
-	 */
-	private void handleEntries(List<SyndEntry> entries, FeedItemHandler handler, Date cacheExpiryDate, ExecutorService executor) throws IOException, InterruptedException, ExecutionException {
-		Set<FeedItem> newItems = new HashSet<>();
+	 * @param complete true if the entries contain the whole feed
+	 * @param newItems the list which will receive new or changed items which
+	 * should be handled
+	 * @return the number of items which were not previously known
+	 */
+	private int handleEntries(List<SyndEntry> entries, Date cacheExpiryDate, boolean complete, List<FeedItem> newItems) {
+		List<FeedItem> downloadedItems = new ArrayList<>(entries.size());
 		for (SyndEntry entry : entries)
-			newItems.add(new FeedItem(this, entry));
-
-		//Find outdated items
-		for (FeedItem oldItem : new HashSet<>(items))
-			if (!newItems.contains(oldItem) && oldItem.getLastSeen() != null && oldItem.getLastSeen().before(cacheExpiryDate)) {
-				//Item expired
-				items.remove(oldItem);
-			} else if (newItems.contains(oldItem)) {
-				for (FeedItem newItem : newItems)
-					if (newItem.equals(oldItem))
-						newItem.setState(oldItem.getState());//Transfer state to new item
-				if (oldItem.getState() != FeedItem.State.SENT_PDF)
-					items.remove(oldItem);//Replace with new item to resend pdf
-				else
-					oldItem.updateLastSeen();
-			}
+			downloadedItems.add(new FeedItem(this, entry));
 
-		// Ignore already existing items
-		newItems.removeAll(items);
+		int unknownItems = mergeItems(downloadedItems, complete ? cacheExpiryDate : null, newItems);
+		if (complete)
+			archiveItems(cacheExpiryDate);
+		return unknownItems;
+	}
 
-		//Add new items
-		items.addAll(newItems);
+	/**
+	 * Merges downloaded items into the cached items in a single pass. Items
+	 * which were not previously known, or which were known but didn't have
+	 * their PDF sent yet, replace the cached items (keeping their state) and
+	 * should be handled. Items which were fully sent just get their last seen
+	 * date updated. Items which were moved to the seen filter are ignored.
+	 * Cached items which were not downloaded and were last seen before
+	 * cacheExpiryDate are removed.
+	 *
+	 * @param downloadedItems the downloaded items
+	 * @param cacheExpiryDate the date after which feed items expire and can be
+	 * removed, or null if no items should be removed
+	 * @param newItems the list where items which should be handled will be
+	 * added
+	 * @return the number of items which were not previously known
+	 */
+	int mergeItems(List<FeedItem> downloadedItems, Date cacheExpiryDate, List<FeedItem> newItems) {
+		Set<ItemFingerprint> downloadedIds = new HashSet<>();
+		int unknownItems = 0;
+		synchronized (items) {
+			for (FeedItem downloadedItem : downloadedItems) {
+				if (!downloadedIds.add(downloadedItem.getId()))
+					continue;//Duplicate item
+				FeedItem oldItem = items.get(downloadedItem.getId());
+				if (oldItem == null && seenFilter != null && seenFilter.mightContain(downloadedItem.getId())) {
+					//Item was seen a long time ago
+					if (seenFilter.refresh(downloadedItem.getId(), DateUtils.truncate(new Date(), Calendar.DAY_OF_MONTH)))
+						dirty = true;
+					continue;
+				} else if (oldItem == null) {
+					unknownItems++;
+				} else if (oldItem.getState() != FeedItem.State.SENT_PDF) {
+					downloadedItem.setState(oldItem.getState());//Transfer state to new item
+				} else {
+					items.updateLastSeen(oldItem);
+					continue;
+				}
+				items.put(downloadedItem);
+				newItems.add(downloadedItem);
+				dirty = true;
+			}
 
-		List<Future<?>> futures = new ArrayList<>();
-		for (FeedItem item : newItems) {
-			Future<?> future = executor.submit(new Runnable() {
-				private FeedItemHandler handler;
-				private Feed feed;
-				private FeedItem item;
+			//Remove outdated items; downloaded items were just seen and are not affected
+			if (cacheExpiryDate != null && !items.removeSeenBefore(cacheExpiryDate).isEmpty())
+				dirty = true;
+		}
+		return unknownItems;
+	}
 
-				public Runnable setParameters(FeedItemHandler handler, Feed feed, FeedItem item) {
-					this.handler = handler;
-					this.feed = feed;
-					this.item = item;
-					return this;
+	/**
+	 * Moves items which were last seen more than feed.seen_filter_days ago
+	 * from the exact items set into the seen filter, and removes expired
+	 * generations from the seen filter.
+	 *
+	 * @param cacheExpiryDate the date after which feed items expire and can be
+	 * removed
+	 */
+	private void archiveItems(Date cacheExpiryDate) {
+		Date today = DateUtils.truncate(new Date(), Calendar.DAY_OF_MONTH);
+		synchronized (items) {
+			if (settings.getFeedSeenFilterDays() > 0) {
+				Date archiveDate = DateUtils.addDays(today, -settings.getFeedSeenFilterDays());
+				for (FeedItem item : items.removeSeenBefore(archiveDate)) {
+					if (seenFilter == null)
+						seenFilter = new SeenFilter(settings.getFeedSeenFilterFalsePositiveRate());
+					seenFilter.add(item.getId(), today);
+					dirty = true;
 				}
+			}
+			if (seenFilter != null && seenFilter.expire(cacheExpiryDate))
+				dirty = true;
+		}
+	}
 
-				@Override
-				public void run() {
-					try {
-						handler.handle(feed, item);
-					} catch (RuntimeException ex) {
-						log.error(MessageFormat.format(messages.getString("ERROR_HANDLING_FEED_ITEM"), new Object[]{item}), ex);
-					}
-				}
-			}.setParameters(handler, this, item));
-			futures.add(future);
+	/**
+	 * Updates the polling statistics after a successful check and computes
+	 * the date when this feed should be checked next. The next check is
+	 * scheduled at half the average time between new items, is delayed
+	 * further by every check which didn't find new items, and is limited by
+	 * the minimum and maximum polling intervals.
+	 *
+	 * The feed is only marked as changed if new items were found, a failure
+	 * was cleared, or the next update moved by more than the minimum polling
+	 * interval. Otherwise, the saved schedule would make the next run check
+	 * this feed at about the same time anyway, and rewriting the whole feed
+	 * (including its items) after every "not modified" response is avoided.
+	 *
+	 * @param changed true if new items were found
+	 */
+	private void updateSchedule(boolean changed) {
+		Date now = new Date();
+		boolean failed = failureCount > 0 || backoffUntil != null || lastError != null;
+		Date previousUpdate = nextUpdate;
+		if (changed) {
+			if (lastChanged != null) {
+				long interval = Math.max(now.getTime() - lastChanged.getTime(), 0);
+				changeInterval = changeInterval > 0 ? (changeInterval * 3 + interval) / 4 : interval;
+			}
+			lastChanged = now;
+			unchangedCount = 0;
+		} else {
+			unchangedCount++;
+		}
+		lastChecked = now;
+		failureCount = 0;
+		backoffUntil = null;
+		lastError = null;
+		long minInterval = settings.getFeedMinPollInterval() * 60000L;
+		long maxInterval = Math.max(settings.getFeedMaxPollInterval() * 60000L, minInterval);
+		long delay = Math.max(changeInterval / 2, minInterval * (unchangedCount + 1));
+		delay = Math.min(Math.max(delay, minInterval), maxInterval);
+		nextUpdate = new Date(now.getTime() + delay);
+		if (changed || failed || previousUpdate == null || Math.abs(nextUpdate.getTime() - previousUpdate.getTime()) > minInterval)
+			dirty = true;
+	}
+
+	/**
+	 * Records a failed update. After feed.failure_threshold consecutive
+	 * failures, the feed is not updated until an exponentially growing backoff
+	 * period (starting with the minimum polling interval) expires; then a
+	 * single probe update is allowed, which either resets the failure count or
+	 * doubles the backoff period.
+	 *
+	 * @param ex the exception which caused the update to fail
+	 */
+	public void recordFailure(Throwable ex) {
+		Date now = new Date();
+		failureCount++;
+		dirty = true;
+		lastError = ExceptionUtils.getRootCauseMessage(ex);
+		lastChecked = now;
+		int threshold = settings.getFeedFailureThreshold();
+		if (failureCount >= threshold) {
+			long minInterval = settings.getFeedMinPollInterval() * 60000L;
+			long maxBackoff = Math.max(settings.getFeedMaxBackoff() * 60000L, minInterval);
+			long backoff = minInterval << Math.min(failureCount - threshold, 30);
+			backoff = backoff > 0 ? Math.min(backoff, maxBackoff) : maxBackoff;
+			backoffUntil = new Date(now.getTime() + backoff);
 		}
-		for (Future future : futures)
-			future.get();
 	}
 
 	/**
-	 * Downloads the feed and handles new or changed items
+	 * Returns true if this feed's circuit breaker is tripped: the feed failed
+	 * to update too many times and the backoff period hasn't expired yet.
+	 *
+	 * @param now the current date
+	 * @return true if this feed's circuit breaker is tripped
+	 */
+	public boolean isTripped(Date now) {
+		return failureCount >= settings.getFeedFailureThreshold() && backoffUntil != null && backoffUntil.after(now);
+	}
+
+	/**
+	 * Returns true if this feed should be checked now. Feeds which are due
+	 * within half of the minimum polling interval are also considered due, so
+	 * that they're not postponed until the next run.
+	 *
+	 * @param now the current date
+	 * @return true if this feed should be checked now
+	 */
+	public boolean isDue(Date now) {
+		return nextUpdate == null || nextUpdate.getTime() <= now.getTime() + settings.getFeedMinPollInterval() * 30000L;
+	}
+
+	/**
+	 * Starts downloading the feed, using the HTTP cache validators from the
+	 * last processed download.
 	 *
-	 * @param handler the handler for feed items
+	 * @param fetcher the FeedFetcher engine
+	 * @return the Future for the feed response
+	 */
+	protected Future<FeedResponse> fetch(FeedFetcher fetcher) {
+		return fetcher.fetch(new FeedRequest(url, etag, lastModified, settings.getFeedConnectTimeout(), settings.getFeedReadTimeout()));
+	}
+
+	/**
+	 * Merges the items of a parsed feed into the cached items. New or changed
+	 * items are not handled here; they are returned in newItems and the feed
+	 * should be saved after they are handled. If the server reported that the
+	 * feed hasn't changed since the last download, the items are left
+	 * untouched. In both cases, the polling statistics and the next update
+	 * date are updated. The parsed feed is not modified, so it can be shared
+	 * by several subscribers of the same feed.
+	 *
+	 * The HTTP cache validators of the download are only kept when the feed
+	 * is saved after all of its new items were delivered, so that items which
+	 * failed to be delivered are downloaded and handled again by the next
+	 * update instead of getting a "not modified" response.
+	 *
+	 * @param parsedFeed the parsed feed
 	 * @param cacheExpiryDate the date after which feed items expire and can be
 	 * removed
-	 * @param executor the ExecutorService instance to process asynchronous
-	 * tasks
-	 */
-	protected void update(FeedItemHandler handler, Date cacheExpiryDate, ExecutorService executor) {
-		try {
-			URLConnection connection = new URL(url).openConnection();
-			connection.setConnectTimeout(settings.getFeedConnectTimeout());
-			connection.setReadTimeout(settings.getFeedReadTimeout());
-			connection.connect();
-			SyndFeedInput feedInput = new SyndFeedInput();
-			Charset charset = Charset.forName("utf-8"); //NOI18N
-			if (connection.getContentEncoding() != null) {
-				charset = Charset.forName(connection.getContentEncoding());
-			} else if (connection.getContentType() != null) {
-				String[] contentTypeParts = connection.getContentType().split(";"); //NOI18N
-				for (String contentTypePart : contentTypeParts) {
-					String[] contentTypePartComponents = contentTypePart.trim().split("=", 2); //NOI18N
-					if (contentTypePartComponents.length == 2 && contentTypePartComponents[0].matches("charset")) //NOI18N
-						charset = Charset.forName(contentTypePartComponents[1].trim());
+	 * @param newItems the list which will receive new or changed items which
+	 * should be handled
+	 * @return true if the feed was downloaded and processed, false if the
+	 * server reported that the feed was not modified
+	 */
+	protected boolean update(ParsedFeed parsedFeed, Date cacheExpiryDate, List<FeedItem> newItems) {
+		if (parsedFeed.isNotModified()) {
+			updateSchedule(false);
+			return false;
+		}
+		SyndFeed feed = parsedFeed.getFeed();
+		title = feed.getTitle();
+		encoding = feed.getEncoding();
+		int firstNewItem = newItems.size();
+		int unknownItems = handleEntries(feed.getEntries(), cacheExpiryDate, !parsedFeed.isTruncated(), newItems);
+		updateSchedule(unknownItems > 0);
+		pendingItems = new ArrayList<>();
+		for (FeedItem item : newItems.subList(firstNewItem, newItems.size()))
+			if (item.getState() == FeedItem.State.SENT_NOTHING)
+				pendingItems.add(item);
+		pendingEtag = parsedFeed.getEtag();
+		pendingLastModified = parsedFeed.getLastModified();
+		return true;
+	}
+
+	/**
+	 * Keeps the HTTP cache validators of the current download if all of its
+	 * new items were delivered. Otherwise, the validators are cleared, so that
+	 * the next update downloads the whole feed and handles the undelivered
+	 * items again. Called when the feed is saved.
+	 */
+	void commitValidators() {
+		if (pendingItems == null)
+			return;
+		boolean delivered = true;
+		for (FeedItem item : pendingItems)
+			if (item.getState() == FeedItem.State.SENT_NOTHING)
+				delivered = false;
+		String newEtag = delivered ? pendingEtag : null;
+		String newLastModified = delivered ? pendingLastModified : null;
+		if (!Objects.equals(etag, newEtag) || !Objects.equals(lastModified, newLastModified)) {
+			etag = newEtag;
+			lastModified = newLastModified;
+			dirty = true;
+		}
+		pendingItems = null;
+		pendingEtag = null;
+		pendingLastModified = null;
+	}
+
+	/**
+	 * Parses a downloaded feed. The streaming parser (if enabled) stops
+	 * reading the feed after a number of entries which are already known to
+	 * this feed, so its result should not be shared with other subscribers.
+	 * Cached items are only expired or archived after a complete parse, so
+	 * the whole feed is parsed once cached items are due to be expired or
+	 * archived; this refreshes items which are still in the feed but are
+	 * after the point where the streaming parser stops.
+	 *
+	 * @param responseFuture the Future for the feed response, as returned by
+	 * fetch
+	 * @param streaming true if the streaming parser should be used (if it's
+	 * enabled in the settings)
+	 * @return the parsed feed
+	 */
+	protected ParsedFeed parse(Future<FeedResponse> responseFuture, boolean streaming) {
+		try (FeedResponse response = responseFuture.get()) {
+			if (response.isNotModified())
+				return new ParsedFeed();
+			SyndFeed feed;
+			boolean truncated = false;
+			try (Reader reader = response.getReader()) {
+				if (streaming && settings.getFeedStreamingKnownEntries() > 0 && !hasAgingItems()) {
+					StreamingFeedParser parser = new StreamingFeedParser(settings.getFeedStreamingKnownEntries());
+					feed = parser.parse(reader, new StreamingFeedParser.EntryFilter() {
+
+						@Override
+						public boolean isKnown(SyndEntry entry) {
+							//Items which weren't fully sent are handled again, so they're not considered known
+							ItemFingerprint id = FeedItem.createId(Feed.this, entry);
+							FeedItem item = items.get(id);
+							if (item != null)
+								return item.getState() == FeedItem.State.SENT_PDF;
+							return seenFilter != null && seenFilter.mightContain(id);
+						}
+					});
+					truncated = parser.isTruncated();
+				} else {
+					feed = new SyndFeedInput().build(reader);
 				}
 			}
-			SyndFeed feed = feedInput.build(new InputStreamReader(connection.getInputStream(), charset));
-			title = feed.getTitle();
-			encoding = feed.getEncoding();
-			handleEntries(feed.getEntries(), handler, cacheExpiryDate, executor);
+			return new ParsedFeed(feed, response.getEtag(), response.getLastModified(), truncated);
+		} catch (ExecutionException ex) {
+			throw new RuntimeException(MessageFormat.format(messages.getString("CANNOT_UPDATE_FEED"), new Object[]{url}), ex.getCause());
 		} catch (IOException | IllegalArgumentException ex) {
 			throw new RuntimeException(MessageFormat.format(messages.getString("CANNOT_UPDATE_FEED"), new Object[]{url}), ex);
 		} catch (Exception ex) {
@@ -300,6 +783,31 @@ public class Feed {
 		}
 	}
 
+	/**
+	 * Returns true if any cached item is due to be expired or moved into the
+	 * seen filter
+	 *
+	 * @return true if any cached item is due to be expired or archived
+	 */
+	private boolean hasAgingItems() {
+		int days = settings.getCacheExpireDays();
+		if (settings.getFeedSeenFilterDays() > 0)
+			days = Math.min(days, settings.getFeedSeenFilterDays());
+		Date today = DateUtils.truncate(new Date(), Calendar.DAY_OF_MONTH);
+		return items.hasSeenBefore(DateUtils.addDays(today, -days));
+	}
+
+	/**
+	 * Returns the key which identifies downloads of this feed: the URL and
+	 * the cache validators. Subscribers with the same key would send the same
+	 * request and can share a download.
+	 *
+	 * @return the key which identifies downloads of this feed
+	 */
+	protected String getFetchKey() {
+		return url + "\n" + StringUtils.defaultString(etag) + "\n" + StringUtils.defaultString(lastModified); //NOI18N
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		return obj instanceof Feed
@@ -330,8 +838,8 @@ public class Feed {
 	 *
 	 * @return the feed items
 	 */
-	public Set<FeedItem> getItems() {
-		return items;
+	public Collection<FeedItem> getItems() {
+		return items.values();
 	}
 
 	/**
@@ -352,6 +860,34 @@ public class Feed {
 		return url;
 	}
 
+	/**
+	 * Returns the number of consecutive failed updates
+	 *
+	 * @return the number of consecutive failed updates
+	 */
+	public int getFailureCount() {
+		return failureCount;
+	}
+
+	/**
+	 * Returns the date until which this feed is not updated because of
+	 * repeated failures
+	 *
+	 * @return the date until which this feed is not updated, or null
+	 */
+	public Date getBackoffUntil() {
+		return backoffUntil;
+	}
+
+	/**
+	 * Returns the error message of the last failed update
+	 *
+	 * @return the error message of the last failed update, or null
+	 */
+	public String getLastError() {
+		return lastError;
+	}
+
 	/**
 	 * Returns the feed encoding
 	 *
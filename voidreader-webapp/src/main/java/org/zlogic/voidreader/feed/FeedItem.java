@@ -6,18 +6,23 @@
 package org.zlogic.voidreader.feed;
 
 import com.google.appengine.api.datastore.EmbeddedEntity;
+import com.google.appengine.api.datastore.ShortBlob;
 import com.rometools.rome.feed.synd.SyndEntry;
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.Calendar;
 import java.util.Date;
-import java.util.Objects;
+import java.util.ResourceBundle;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.time.DateUtils;
 import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
 
 /**
- * A single feed item representation. If it's just downloaded, contains HTML and
- * text data generated by StringTemplate. If it's loaded from XML, contains the
- * last known item state: sent text, sent PDF, last seen date etc.
+ * A single feed item representation. If it's just downloaded, renders HTML and
+ * text data with StringTemplate when they're requested, until it's handled. If
+ * it's loaded from XML, contains the last known item state: sent text, sent
+ * PDF, last seen date etc.
  *
  * @author Dmitry Zolotukhin [zlogic@gmail.com]
  */
@@ -41,10 +46,18 @@ public class FeedItem implements Comparable<FeedItem> {
 		 */
 		SENT_PDF
 	};
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/voidreader/messages");
+	/**
+	 * The shared template group for rendering feed items
+	 */
+	private static volatile STGroup templates;
 	/**
 	 * The feed item unique ID
 	 */
-	private String id;
+	private ItemFingerprint id;
 	/**
 	 * The date this item was last seen
 	 */
@@ -53,6 +66,10 @@ public class FeedItem implements Comparable<FeedItem> {
 	 * The state of this item
 	 */
 	private State state = State.SENT_NOTHING;
+	/**
+	 * True if this item was changed since it was loaded or saved
+	 */
+	private boolean dirty = false;
 	/**
 	 * The parent Feed instance
 	 */
@@ -65,6 +82,10 @@ public class FeedItem implements Comparable<FeedItem> {
 	 * The title of this item
 	 */
 	private String title;
+	/**
+	 * The feed item downloaded by ROME, kept until the contents are released
+	 */
+	private SyndEntry entry;
 	/**
 	 * The text contents of this item
 	 */
@@ -85,60 +106,100 @@ public class FeedItem implements Comparable<FeedItem> {
 	}
 
 	/**
-	 * Constructs a FeedItem from data downloaded by ROME
+	 * Constructs a FeedItem which only contains an ID and can be used to look
+	 * up items
+	 *
+	 * @param id the feed item ID
+	 */
+	protected FeedItem(ItemFingerprint id) {
+		this.id = id;
+	}
+
+	/**
+	 * Constructs a FeedItem from data downloaded by ROME. The text and HTML
+	 * contents are rendered only when they're requested.
 	 *
 	 * @param feed the feed
 	 * @param entry the feed item downloaded by ROME
-	 * @throws IOException if generating text/HTML contents failed because
-	 * templates cannot be found
 	 */
-	protected FeedItem(Feed feed, SyndEntry entry) throws IOException {
+	protected FeedItem(Feed feed, SyndEntry entry) {
 		this.feed = feed;
-		this.id = MessageFormat.format("{0}@@{1}@@{2}@@{3}", new Object[]{feed.getUrl(), entry.getUri(), entry.getLink(), entry.getTitle()});//Unique ID //NOI18N
+		this.entry = entry;
+		this.id = createId(feed, entry);
 		this.link = entry.getLink();
 		this.title = entry.getTitle();
-		this.lastSeen = new Date();
+		this.lastSeen = getLastSeenDate();
 		this.state = State.SENT_NOTHING;
+		this.dirty = true;
 		publishedDate = entry.getPublishedDate();
+	}
 
-		ST textTemplate = new ST(IOUtils.toString(getClass().getResourceAsStream("templates/FeedItem.txt")), '$', '$'); //NOI18N
-		textTemplate.add("feed", feed); //NOI18N
-		textTemplate.add("entry", entry); //NOI18N
-		itemText = textTemplate.render();
-
-		ST htmlTemplate = new ST(IOUtils.toString(getClass().getResourceAsStream("templates/FeedItem.html")), '$', '$'); //NOI18N
-		htmlTemplate.add("feed", feed); //NOI18N
-		htmlTemplate.add("entry", entry); //NOI18N
-		itemHtml = htmlTemplate.render();
-		//TODO: extract alt-text from images for comics
+	/**
+	 * Returns the shared template group with the compiled FeedItemText and
+	 * FeedItemHtml templates, loading and compiling them on first use. The
+	 * group is not modified after it's created and can be used by multiple
+	 * threads.
+	 *
+	 * @return the shared template group
+	 * @throws IOException if the templates cannot be read
+	 */
+	protected static STGroup getTemplates() throws IOException {
+		STGroup group = templates;
+		if (group != null)
+			return group;
+		synchronized (FeedItem.class) {
+			if (templates == null) {
+				group = new STGroup('$', '$');
+				group.defineTemplate("FeedItemText", "feed,entry", IOUtils.toString(FeedItem.class.getResourceAsStream("templates/FeedItem.txt"), "utf-8")); //NOI18N
+				group.defineTemplate("FeedItemHtml", "feed,entry", IOUtils.toString(FeedItem.class.getResourceAsStream("templates/FeedItem.html"), "utf-8")); //NOI18N
+				templates = group;
+			}
+			return templates;
+		}
 	}
 
 	/**
+	 * Returns the unique ID for a feed item downloaded by ROME
 	 *
-	 * Constructs a FeedItem instance from a Datastore EmbeddedEntity.
+	 * @param feed the feed
+	 * @param entry the feed item downloaded by ROME
+	 * @return the unique ID for the feed item
+	 */
+	protected static ItemFingerprint createId(Feed feed, SyndEntry entry) {
+		return ItemFingerprint.create(feed.getUrl(), entry.getUri(), entry.getLink(), entry.getTitle());
+	}
+
+	/**
+	 * Constructs a FeedItem instance from its stored state.
 	 *
 	 * @param feed the feed
-	 * @param entity the Datastore EmbeddedEntity
+	 * @param id the feed item ID
+	 * @param lastSeen the date this item was last seen
+	 * @param state the state of this item
 	 */
-	public FeedItem(Feed feed, EmbeddedEntity entity) {
+	protected FeedItem(Feed feed, ItemFingerprint id, Date lastSeen, State state) {
 		this.feed = feed;
-		this.id = (String) entity.getProperty("id");
-		this.lastSeen = (Date) entity.getProperty("lastSeen"); //NOI18N
-		this.state = State.valueOf((String) entity.getProperty("state")); //NOI18N
+		this.id = id;
+		this.lastSeen = lastSeen;
+		this.state = state;
 	}
 
 	/**
-	 * Returns this FeedItem as an EmbeddedEntity which can be saved into the
-	 * Datastore.
 	 *
-	 * @return this FeedItem as an EmbeddedEntity
+	 * Constructs a FeedItem instance from a Datastore EmbeddedEntity. Items
+	 * saved with a legacy string ID are migrated to a fingerprint.
+	 *
+	 * @param feed the feed
+	 * @param entity the Datastore EmbeddedEntity
 	 */
-	public EmbeddedEntity getEntity() {
-		EmbeddedEntity entity = new EmbeddedEntity();
-		entity.setUnindexedProperty("id", id); //NOI18N
-		entity.setUnindexedProperty("lastSeen", lastSeen); //NOI18N
-		entity.setUnindexedProperty("state", state.toString()); //NOI18N
-		return entity;
+	public FeedItem(Feed feed, EmbeddedEntity entity) {
+		this.feed = feed;
+		if (entity.hasProperty("fingerprint")) //NOI18N
+			this.id = ItemFingerprint.fromShortBlob((ShortBlob) entity.getProperty("fingerprint")); //NOI18N
+		else
+			this.id = ItemFingerprint.fromLegacyId((String) entity.getProperty("id")); //NOI18N
+		this.lastSeen = (Date) entity.getProperty("lastSeen"); //NOI18N
+		this.state = State.valueOf((String) entity.getProperty("state")); //NOI18N
 	}
 
 	@Override
@@ -149,39 +210,110 @@ public class FeedItem implements Comparable<FeedItem> {
 
 	@Override
 	public int hashCode() {
-		int hash = 3;
-		hash = 97 * hash + Objects.hashCode(this.id);
-		return hash;
+		return id.hashCode();
+	}
+
+	/**
+	 * Returns the current date, truncated to the cache expiry granularity (one
+	 * day), so that seeing an item again on the same day doesn't change it
+	 *
+	 * @return the current date truncated to the start of the day
+	 */
+	private static Date getLastSeenDate() {
+		return DateUtils.truncate(new Date(), Calendar.DAY_OF_MONTH);
 	}
 
 	/**
-	 * Updates the last seen time to the current time
+	 * Updates the last seen time to the current day
 	 */
 	public void updateLastSeen() {
-		lastSeen = new Date();
+		Date now = getLastSeenDate();
+		if (!now.equals(lastSeen)) {
+			lastSeen = now;
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Returns true if this item was changed since it was loaded or saved
+	 *
+	 * @return true if this item was changed since it was loaded or saved
+	 */
+	protected boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Marks this item as saved
+	 */
+	protected void clearDirty() {
+		dirty = false;
 	}
 
 	/*
 	 * Getters
 	 */
 	/**
-	 * Returns the text contents of this item
+	 * Returns the feed item unique ID
+	 *
+	 * @return the feed item unique ID
+	 */
+	protected ItemFingerprint getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the text contents of this item, rendering them on first use
 	 *
-	 * @return the text contents of this item
+	 * @return the text contents of this item, or null if this item wasn't just
+	 * downloaded or its contents were released
 	 */
-	public String getItemText() {
+	public synchronized String getItemText() {
+		if (itemText == null && entry != null)
+			itemText = render("FeedItemText"); //NOI18N
 		return itemText;
 	}
 
 	/**
-	 * Returns the HTML contents of this item
+	 * Returns the HTML contents of this item, rendering them on first use
 	 *
-	 * @return the HTML contents of this item
+	 * @return the HTML contents of this item, or null if this item wasn't just
+	 * downloaded or its contents were released
 	 */
-	public String getItemHtml() {
+	public synchronized String getItemHtml() {
+		if (itemHtml == null && entry != null)
+			itemHtml = render("FeedItemHtml"); //NOI18N
 		return itemHtml;
 	}
 
+	/**
+	 * Renders a template for this item
+	 *
+	 * @param templateName the template name
+	 * @return the rendered template
+	 */
+	private String render(String templateName) {
+		try {
+			ST template = getTemplates().getInstanceOf(templateName);
+			template.add("feed", feed); //NOI18N
+			template.add("entry", entry); //NOI18N
+			return template.render();
+			//TODO: extract alt-text from images for comics
+		} catch (IOException ex) {
+			throw new RuntimeException(MessageFormat.format(messages.getString("CANNOT_RENDER_FEED_ITEM"), new Object[]{link}), ex);
+		}
+	}
+
+	/**
+	 * Releases the downloaded entry and rendered contents once this item has
+	 * been handled, keeping only its identity and state.
+	 */
+	protected synchronized void releaseContents() {
+		entry = null;
+		itemText = null;
+		itemHtml = null;
+	}
+
 	/**
 	 * Returns the link for this item
 	 *
@@ -233,6 +365,8 @@ public class FeedItem implements Comparable<FeedItem> {
 	 * @param state the new state of this item
 	 */
 	public void setState(State state) {
+		if (this.state != state)
+			dirty = true;
 		this.state = state;
 	}
 
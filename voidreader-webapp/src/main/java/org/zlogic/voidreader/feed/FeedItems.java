@@ -0,0 +1,177 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.feed;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * The cached items of a feed, indexed by their ID and by their last seen date.
+ * Last seen dates have a granularity of one day, so every day is a bucket in
+ * the date index; removing items which were last seen before a date only
+ * visits the buckets before that date.
+ *
+ * All methods are synchronized on this instance; iterating through values
+ * should also be done while holding the lock.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class FeedItems {
+
+	/**
+	 * Items by their ID
+	 */
+	private final Map<ItemFingerprint, FeedItem> items = new HashMap<>();
+	/**
+	 * Items by their last seen date; items without a last seen date are not
+	 * indexed and never expire
+	 */
+	private final NavigableMap<Date, Map<ItemFingerprint, FeedItem>> lastSeenIndex = new TreeMap<>();
+
+	/**
+	 * Returns the item with an ID
+	 *
+	 * @param id the item ID
+	 * @return the item, or null if there's no item with this ID
+	 */
+	public synchronized FeedItem get(ItemFingerprint id) {
+		return items.get(id);
+	}
+
+	/**
+	 * Returns true if there's an item with an ID
+	 *
+	 * @param id the item ID
+	 * @return true if there's an item with this ID
+	 */
+	public synchronized boolean containsKey(ItemFingerprint id) {
+		return items.containsKey(id);
+	}
+
+	/**
+	 * Adds an item, replacing an existing item with the same ID
+	 *
+	 * @param item the item to add
+	 */
+	public synchronized void put(FeedItem item) {
+		FeedItem oldItem = items.put(item.getId(), item);
+		if (oldItem != null)
+			unindex(oldItem);
+		index(item);
+	}
+
+	/**
+	 * Updates the last seen date of an item in this set
+	 *
+	 * @param item the item
+	 */
+	public synchronized void updateLastSeen(FeedItem item) {
+		Date lastSeen = item.getLastSeen();
+		item.updateLastSeen();
+		if (!item.getLastSeen().equals(lastSeen) && items.get(item.getId()) == item) {
+			unindex(item, lastSeen);
+			index(item);
+		}
+	}
+
+	/**
+	 * Removes all items which were last seen before a date. Only looks at
+	 * items which were last seen before that date.
+	 *
+	 * @param date the date
+	 * @return the removed items
+	 */
+	public synchronized List<FeedItem> removeSeenBefore(Date date) {
+		List<FeedItem> removedItems = new ArrayList<>();
+		for (Iterator<Map<ItemFingerprint, FeedItem>> it = lastSeenIndex.headMap(date, false).values().iterator(); it.hasNext();) {
+			for (FeedItem item : it.next().values()) {
+				items.remove(item.getId());
+				removedItems.add(item);
+			}
+			it.remove();
+		}
+		return removedItems;
+	}
+
+	/**
+	 * Returns true if any item was last seen before a date
+	 *
+	 * @param date the date
+	 * @return true if any item was last seen before the date
+	 */
+	public synchronized boolean hasSeenBefore(Date date) {
+		return !lastSeenIndex.isEmpty() && lastSeenIndex.firstKey().before(date);
+	}
+
+	/**
+	 * Returns all items. The returned collection is backed by this set and
+	 * cannot be modified.
+	 *
+	 * @return all items
+	 */
+	public synchronized Collection<FeedItem> values() {
+		return Collections.unmodifiableCollection(items.values());
+	}
+
+	/**
+	 * Returns the number of items
+	 *
+	 * @return the number of items
+	 */
+	public synchronized int size() {
+		return items.size();
+	}
+
+	/**
+	 * Adds an item to the last seen index
+	 *
+	 * @param item the item
+	 */
+	private void index(FeedItem item) {
+		if (item.getLastSeen() == null)
+			return;
+		Map<ItemFingerprint, FeedItem> bucket = lastSeenIndex.get(item.getLastSeen());
+		if (bucket == null) {
+			bucket = new HashMap<>();
+			lastSeenIndex.put(item.getLastSeen(), bucket);
+		}
+		bucket.put(item.getId(), item);
+	}
+
+	/**
+	 * Removes an item from the last seen index
+	 *
+	 * @param item the item
+	 */
+	private void unindex(FeedItem item) {
+		unindex(item, item.getLastSeen());
+	}
+
+	/**
+	 * Removes an item from the last seen index
+	 *
+	 * @param item the item
+	 * @param lastSeen the last seen date under which the item is indexed
+	 */
+	private void unindex(FeedItem item, Date lastSeen) {
+		if (lastSeen == null)
+			return;
+		Map<ItemFingerprint, FeedItem> bucket = lastSeenIndex.get(lastSeen);
+		if (bucket != null && bucket.get(item.getId()) == item) {
+			bucket.remove(item.getId());
+			if (bucket.isEmpty())
+				lastSeenIndex.remove(lastSeen);
+		}
+	}
+}
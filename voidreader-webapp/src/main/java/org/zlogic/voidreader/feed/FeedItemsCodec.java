@@ -0,0 +1,243 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.feed;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Packed binary format for the cached items of a feed.
+ *
+ * The format starts with a version byte and a flags byte. If the deflate flag
+ * is set, the rest of the data is compressed with Deflate. The (uncompressed)
+ * payload is the item count as a varint, followed by every item: its 16-byte
+ * fingerprint, a state byte (the state ordinal; the high bit is set if the
+ * item has no last seen date) and, if the item has a last seen date, a varint
+ * with the difference in milliseconds from the previous item's last seen date.
+ * Items are written in order of their last seen date, so the differences are
+ * small and never negative.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class FeedItemsCodec {
+
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/voidreader/messages");
+	/**
+	 * The current format version
+	 */
+	private static final byte VERSION = 1;
+	/**
+	 * Flag for compressed data
+	 */
+	private static final byte FLAG_DEFLATE = 1;
+	/**
+	 * State byte bit which is set if the item has no last seen date
+	 */
+	private static final int STATE_NO_LAST_SEEN = 0x80;
+	/**
+	 * Minimum payload size (in bytes) which is worth compressing
+	 */
+	private static final int MIN_DEFLATE_SIZE = 1024;
+	/**
+	 * The item states, by ordinal
+	 */
+	private static final FeedItem.State[] states = FeedItem.State.values();
+	/**
+	 * Comparator which orders items by their last seen date, with items
+	 * without a date first
+	 */
+	private static final Comparator<FeedItem> lastSeenComparator = new Comparator<FeedItem>() {
+
+		@Override
+		public int compare(FeedItem o1, FeedItem o2) {
+			if (o1.getLastSeen() == null || o2.getLastSeen() == null)
+				return o1.getLastSeen() == null ? (o2.getLastSeen() == null ? 0 : -1) : 1;
+			return o1.getLastSeen().compareTo(o2.getLastSeen());
+		}
+	};
+
+	/**
+	 * Private constructor
+	 */
+	private FeedItemsCodec() {
+	}
+
+	/**
+	 * Encodes feed items into the packed binary format. The payload is
+	 * compressed if compression makes it smaller.
+	 *
+	 * @param items the feed items to encode
+	 * @return the encoded items
+	 */
+	public static byte[] encode(Collection<FeedItem> items) {
+		List<FeedItem> sortedItems = new ArrayList<>(items);
+		Collections.sort(sortedItems, lastSeenComparator);
+		ByteArrayOutputStream payload = new ByteArrayOutputStream(16 + sortedItems.size() * 20);
+		try {
+			writeVarint(payload, sortedItems.size());
+			long previousLastSeen = 0;
+			for (FeedItem item : sortedItems) {
+				ItemFingerprint id = item.getId();
+				writeLong(payload, id.getHigh());
+				writeLong(payload, id.getLow());
+				if (item.getLastSeen() == null) {
+					payload.write(item.getState().ordinal() | STATE_NO_LAST_SEEN);
+				} else {
+					payload.write(item.getState().ordinal());
+					long lastSeen = item.getLastSeen().getTime();
+					writeVarint(payload, lastSeen - previousLastSeen);
+					previousLastSeen = lastSeen;
+				}
+			}
+			byte[] data = payload.toByteArray();
+			if (data.length >= MIN_DEFLATE_SIZE) {
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length);
+				compressed.write(VERSION);
+				compressed.write(FLAG_DEFLATE);
+				Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+				try (OutputStream deflaterStream = new DeflaterOutputStream(compressed, deflater)) {
+					deflaterStream.write(data);
+				} finally {
+					deflater.end();
+				}
+				if (compressed.size() < data.length + 2)
+					return compressed.toByteArray();
+			}
+			byte[] result = new byte[data.length + 2];
+			result[0] = VERSION;
+			result[1] = 0;
+			System.arraycopy(data, 0, result, 2, data.length);
+			return result;
+		} catch (IOException ex) {
+			throw new RuntimeException(messages.getString("CANNOT_ENCODE_FEED_ITEMS"), ex);
+		}
+	}
+
+	/**
+	 * Decodes feed items from the packed binary format.
+	 *
+	 * @param feed the feed which owns the items
+	 * @param data the encoded items
+	 * @return the decoded items
+	 */
+	public static List<FeedItem> decode(Feed feed, byte[] data) {
+		if (data.length < 2 || data[0] != VERSION)
+			throw new IllegalArgumentException(MessageFormat.format(messages.getString("UNSUPPORTED_FEED_ITEMS_FORMAT"), new Object[]{data.length > 0 ? data[0] : null}));
+		InputStream payload = new ByteArrayInputStream(data, 2, data.length - 2);
+		if ((data[1] & FLAG_DEFLATE) != 0)
+			payload = new BufferedInputStream(new InflaterInputStream(payload));
+		try (InputStream in = payload) {
+			int count = (int) readVarint(in);
+			List<FeedItem> items = new ArrayList<>(count);
+			long lastSeen = 0;
+			for (int i = 0; i < count; i++) {
+				ItemFingerprint id = new ItemFingerprint(readLong(in), readLong(in));
+				int state = readByte(in);
+				Date itemLastSeen = null;
+				if ((state & STATE_NO_LAST_SEEN) == 0) {
+					lastSeen += readVarint(in);
+					itemLastSeen = new Date(lastSeen);
+				}
+				items.add(new FeedItem(feed, id, itemLastSeen, states[state & ~STATE_NO_LAST_SEEN]));
+			}
+			return items;
+		} catch (IOException | ArrayIndexOutOfBoundsException ex) {
+			throw new IllegalArgumentException(messages.getString("CANNOT_DECODE_FEED_ITEMS"), ex);
+		}
+	}
+
+	/**
+	 * Writes an unsigned varint (7 bits per byte, least significant first)
+	 *
+	 * @param out the output stream
+	 * @param value the value to write
+	 * @throws IOException if the data cannot be written
+	 */
+	private static void writeVarint(OutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	/**
+	 * Reads an unsigned varint
+	 *
+	 * @param in the input stream
+	 * @return the value which was read
+	 * @throws IOException if the data ended unexpectedly
+	 */
+	private static long readVarint(InputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte(in);
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException(messages.getString("CANNOT_DECODE_FEED_ITEMS"));
+	}
+
+	/**
+	 * Writes a big-endian long
+	 *
+	 * @param out the output stream
+	 * @param value the value to write
+	 * @throws IOException if the data cannot be written
+	 */
+	private static void writeLong(OutputStream out, long value) throws IOException {
+		for (int shift = 56; shift >= 0; shift -= 8)
+			out.write((int) (value >>> shift));
+	}
+
+	/**
+	 * Reads a big-endian long
+	 *
+	 * @param in the input stream
+	 * @return the value which was read
+	 * @throws IOException if the data ended unexpectedly
+	 */
+	private static long readLong(InputStream in) throws IOException {
+		long value = 0;
+		for (int i = 0; i < 8; i++)
+			value = (value << 8) | readByte(in);
+		return value;
+	}
+
+	/**
+	 * Reads a single byte
+	 *
+	 * @param in the input stream
+	 * @return the byte which was read
+	 * @throws IOException if the data ended unexpectedly
+	 */
+	private static int readByte(InputStream in) throws IOException {
+		int b = in.read();
+		if (b < 0)
+			throw new EOFException();
+		return b;
+	}
+}
@@ -5,26 +5,43 @@
  */
 package org.zlogic.voidreader.feed;
 
-import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
 import com.rometools.opml.feed.opml.Opml;
 import com.rometools.opml.feed.opml.Outline;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.ResourceBundle;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.DateUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.zlogic.voidreader.Settings;
+import org.zlogic.voidreader.fetcher.FeedFetcher;
+import org.zlogic.voidreader.fetcher.FeedResponse;
+import org.zlogic.voidreader.feed.SharedFeedCache.SharedFeed;
+import org.zlogic.voidreader.fetcher.HostScheduler;
+import org.zlogic.voidreader.handler.BatchFeedItemHandler;
 import org.zlogic.voidreader.handler.ErrorHandler;
 import org.zlogic.voidreader.handler.FeedItemHandler;
 
@@ -57,6 +74,10 @@ public class FeedsState {
 	 * Feed item handler
 	 */
 	private final FeedItemHandler feedItemHandler;
+	/**
+	 * The engine for downloading feeds
+	 */
+	private final FeedFetcher feedFetcher;
 	/**
 	 * The date after which feed items expire and can be removed
 	 */
@@ -65,6 +86,35 @@ public class FeedsState {
 	 * The user settings
 	 */
 	private final Settings settings;
+	/**
+	 * The number of feeds updated during the last update
+	 */
+	private final AtomicInteger updatedFeeds = new AtomicInteger();
+	/**
+	 * The number of feeds which were not modified during the last update
+	 */
+	private final AtomicInteger notModifiedFeeds = new AtomicInteger();
+	/**
+	 * The number of feeds which failed to update during the last update
+	 */
+	private final AtomicInteger failedFeeds = new AtomicInteger();
+	/**
+	 * The number of feeds which were not due during the last update
+	 */
+	private int notDueFeeds;
+	/**
+	 * The number of feeds which were backed off during the last update
+	 */
+	private int trippedFeeds;
+	/**
+	 * The feeds selected for the update which is being prepared
+	 */
+	private List<Feed> dueFeeds;
+	/**
+	 * The keys of feeds which were submitted for the current update but not
+	 * saved yet
+	 */
+	private final Set<Key> unfinishedFeeds = Collections.newSetFromMap(new ConcurrentHashMap<Key, Boolean>());
 
 	/**
 	 * Constructor for FeedsState
@@ -72,38 +122,83 @@ public class FeedsState {
 	 * @param settings the user settings
 	 * @param feedItemHandler the FeedItemHandler instance
 	 * @param errorHandler the ErrorHandler instance
+	 * @param feedFetcher the FeedFetcher engine for downloading feeds
 	 */
-	public FeedsState(Settings settings, FeedItemHandler feedItemHandler, ErrorHandler errorHandler) {
+	public FeedsState(Settings settings, FeedItemHandler feedItemHandler, ErrorHandler errorHandler, FeedFetcher feedFetcher) {
 		this.settings = settings;
 		this.feedItemHandler = feedItemHandler;
 		this.errorHandler = errorHandler;
+		this.feedFetcher = feedFetcher;
 
 		Calendar expiryDate = new GregorianCalendar();
 		expiryDate.add(Calendar.DAY_OF_MONTH, -settings.getCacheExpireDays());
-		cacheExpiryDate = expiryDate.getTime();
+		//Last seen dates are stored with a granularity of one day
+		cacheExpiryDate = DateUtils.truncate(expiryDate.getTime(), Calendar.DAY_OF_MONTH);
 	}
 
 	/**
-	 * Updates feed data by adding/removing items to match it with the OPML data
+	 * Updates feed data by adding/removing items to match it with the OPML
+	 * data. The hash of the parsed OPML is stored with the user's data, and if
+	 * it didn't change since the last update, feeds are not reconciled. Only
+	 * added, removed or renamed feeds are written.
 	 *
 	 * @param opml the ROME OPML data
 	 */
 	public void updateOpml(Opml opml) {
 		List<Feed> newFeeds = loadFeeds(opml.getOutlines(), null);
-		List<Feed> existingFeeds = getFeeds();
+		String opmlHash = computeOpmlHash(newFeeds);
+		Key opmlStateKey = KeyFactory.createKey(settings.getKey(), FeedsState.class.getSimpleName(), "opml"); //NOI18N
+		try {
+			if (opmlHash.equals(datastore.get(opmlStateKey).getProperty("hash"))) //NOI18N
+				return;
+		} catch (EntityNotFoundException ex) {
+		}
+		Set<Key> newKeys = new HashSet<>();
+		for (Feed feed : newFeeds)
+			newKeys.add(feed.getKey());
+		Map<Key, Feed> existingFeeds = Feed.load(newKeys, settings);
+		DatastoreBatchWriter writer = new DatastoreBatchWriter(settings.getDatastoreBatchSize());
 		//Remove items absent from OPML
 		List<Key> removeItems = new ArrayList<>();
-		for (Feed feed : existingFeeds)
-			if (!newFeeds.contains(feed))
-				removeItems.add(feed.getKey());
-		datastore.delete(removeItems);
+		for (Key key : Feed.loadKeys(settings))
+			if (!newKeys.contains(key))
+				removeItems.add(key);
+		writer.delete(removeItems);
 		//Update/add items from OPML
 		for (Feed feed : newFeeds) {
-			try {
-				feed.useItemsFrom(Feed.load(feed.getKey(), settings));
-			} catch (EntityNotFoundException ex) {
+			Feed existingFeed = existingFeeds.get(feed.getKey());
+			if (existingFeed != null)
+				feed.useItemsFrom(existingFeed);
+			feed.save(writer);
+		}
+		try {
+			writer.flush();
+		} catch (InterruptedException ex) {
+			throw new RuntimeException(messages.getString("CANNOT_WRITE_TO_DATASTORE"), ex);
+		}
+		Entity opmlState = new Entity(opmlStateKey);
+		opmlState.setUnindexedProperty("hash", opmlHash); //NOI18N
+		datastore.put(opmlState);
+	}
+
+	/**
+	 * Computes a hash of the feeds parsed from OPML (their URLs and titles)
+	 *
+	 * @param feeds the feeds parsed from OPML
+	 * @return the hash of the feeds as a hex string
+	 */
+	private String computeOpmlHash(List<Feed> feeds) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256"); //NOI18N
+			for (Feed feed : feeds) {
+				digest.update(feed.getUrl().getBytes(Charset.forName("utf-8"))); //NOI18N
+				digest.update((byte) 0);
+				digest.update(StringUtils.defaultString(feed.getUserTitle()).getBytes(Charset.forName("utf-8"))); //NOI18N
+				digest.update((byte) 0);
 			}
-			feed.save();
+			return new BigInteger(1, digest.digest()).toString(16);
+		} catch (NoSuchAlgorithmException ex) {
+			throw new RuntimeException(ex);
 		}
 	}
 
@@ -140,44 +235,466 @@ public class FeedsState {
 	}
 
 	/**
-	 * Downloads the latest feed data and handles new and updated items
+	 * Downloads the latest feed data and handles new and updated items, using
+	 * a pipeline which is used only by this user. Only feeds which are due
+	 * according to their polling schedule are updated.
+	 *
+	 * @param ignoreSchedule true if all feeds should be updated, regardless
+	 * of their polling schedule
+	 * @throws InterruptedException if the task was interrupted
+	 */
+	public void update(boolean ignoreSchedule) throws InterruptedException {
+		UpdatePipeline pipeline = new UpdatePipeline(settings);
+		prepareUpdate(pipeline, ignoreSchedule);
+		submitUpdate(pipeline);
+		pipeline.finish();
+		saveProgress();
+		logStatistics();
+	}
+
+	/**
+	 * Downloads the latest data of some feeds and handles new and updated
+	 * items, using a pipeline which is used only by this user. Feeds which are
+	 * not due according to their polling schedule are skipped, so that a
+	 * retried update doesn't download feeds which were already updated.
 	 *
+	 * @param feedKeys the keys of feeds to update
+	 * @return true if all due feeds were updated and saved, false if the
+	 * update should be retried
 	 * @throws InterruptedException if the task was interrupted
-	 * @throws ExecutionException if the task threw an exception
 	 */
-	public void update() throws InterruptedException, ExecutionException {
-		ExecutorService executor = Executors.newFixedThreadPool(settings.getThreadPoolSize(), ThreadManager.currentRequestThreadFactory());
-		List<Feed> feeds = getFeeds();
-		List<Future> futures = new ArrayList<>();
+	public boolean update(Collection<Key> feedKeys) throws InterruptedException {
+		UpdatePipeline pipeline = new UpdatePipeline(settings);
+		dueFeeds = selectFeeds(Feed.load(feedKeys, settings).values(), Collections.<Key>emptySet(), false);
+		for (Feed feed : dueFeeds)
+			pipeline.getFeedCache().register(feed);
+		submitUpdate(pipeline);
+		boolean complete = pipeline.finish();
+		logStatistics();
+		return complete && unfinishedFeeds.isEmpty();
+	}
+
+	/**
+	 * Returns the keys of feeds which should be updated, in the order in which
+	 * they should be updated. Feeds which were not finished by the previous
+	 * update (according to the saved progress) are returned first.
+	 *
+	 * @return the keys of feeds which should be updated
+	 */
+	public List<Key> getDueFeedKeys() {
+		List<Key> keys = new ArrayList<>();
+		for (Feed feed : selectFeeds(getFeeds(), loadProgress(), false))
+			keys.add(feed.getKey());
+		return keys;
+	}
+
+	/**
+	 * Selects the feeds which should be updated and registers them with the
+	 * pipeline's SharedFeedCache. Should be called for all users sharing a
+	 * pipeline before any of them submits its update, so that feeds with
+	 * several subscribers are downloaded only once. Feeds which were not
+	 * finished by the previous update (according to the saved progress) are
+	 * updated first, regardless of their polling schedule.
+	 *
+	 * @param pipeline the update pipeline
+	 * @param ignoreSchedule true if all feeds should be updated, regardless
+	 * of their polling schedule
+	 */
+	public void prepareUpdate(UpdatePipeline pipeline, boolean ignoreSchedule) {
+		dueFeeds = selectFeeds(getFeeds(), loadProgress(), ignoreSchedule);
+		for (Feed feed : dueFeeds)
+			pipeline.getFeedCache().register(feed);
+	}
+
+	/**
+	 * Selects the feeds which should be updated and resets the statistics
+	 *
+	 * @param feeds the feeds to select from
+	 * @param resumedKeys the keys of feeds which should be updated first,
+	 * regardless of their polling schedule
+	 * @param ignoreSchedule true if all feeds should be updated, regardless
+	 * of their polling schedule
+	 * @return the feeds which should be updated, in the order in which they
+	 * should be updated
+	 */
+	private List<Feed> selectFeeds(Collection<Feed> feeds, Set<Key> resumedKeys, boolean ignoreSchedule) {
+		updatedFeeds.set(0);
+		notModifiedFeeds.set(0);
+		failedFeeds.set(0);
+		notDueFeeds = 0;
+		trippedFeeds = 0;
+		unfinishedFeeds.clear();
+		List<Feed> resumedFeeds = new ArrayList<>();
+		List<Feed> scheduledFeeds = new ArrayList<>();
+		Date now = new Date();
 		for (Feed feed : feeds) {
-			Future<?> future = executor.submit(new Runnable() {
+			boolean resumed = resumedKeys.contains(feed.getKey());
+			if (!ignoreSchedule && feed.isTripped(now)) {
+				trippedFeeds++;
+				continue;
+			} else if (!ignoreSchedule && !resumed && !feed.isDue(now)) {
+				notDueFeeds++;
+				continue;
+			}
+			(resumed ? resumedFeeds : scheduledFeeds).add(feed);
+		}
+		resumedFeeds.addAll(scheduledFeeds);
+		return resumedFeeds;
+	}
+
+	/**
+	 * Submits the feeds selected by prepareUpdate to an update pipeline, which
+	 * may be shared with other users. Feeds are processed by the pipeline
+	 * stages: downloads are started through the pipeline's HostScheduler
+	 * (which limits the number of downloads in flight, in total and per host,
+	 * and takes users in turns), responses are parsed and merged by the parse
+	 * stage, and new items are passed to the render and deliver stages. Every
+	 * stage has its own threads and bounded queue, and a stage with a full
+	 * queue blocks the previous stage. A feed is saved once all of its new
+	 * items are delivered; if the FeedItemHandler delivers items in batches,
+	 * the feed is saved once its batch is delivered, and the remaining
+	 * batches are delivered when the pipeline is finished.
+	 *
+	 * A feed which has other subscribers in the same pipeline is downloaded
+	 * and parsed only by the first subscriber to start, the other subscribers
+	 * merge the same parsed feed into their items once it's ready.
+	 *
+	 * Feeds are not started once the pipeline's deadline is close. Feeds which
+	 * are not saved by the end of the update should be stored with
+	 * saveProgress, so that the next update resumes them first.
+	 *
+	 * The update is complete once the pipeline is finished.
+	 *
+	 * @param pipeline the update pipeline
+	 */
+	public void submitUpdate(final UpdatePipeline pipeline) {
+		for (Feed feed : dueFeeds)
+			unfinishedFeeds.add(feed.getKey());
+		if (feedItemHandler instanceof BatchFeedItemHandler)
+			pipeline.addFinishTask(new Runnable() {
+				@Override
+				public void run() {
+					for (Feed feed : ((BatchFeedItemHandler) feedItemHandler).flush())
+						saveFeed(feed, pipeline.getWriter());
+				}
+			});
+		for (Feed feed : dueFeeds) {
+			String host = HostScheduler.getHostKey(feed.getUrl());
+			pipeline.getScheduler().submit(settings.getUsername(), host, new Runnable() {
+				private Feed feed;
+				private String host;
+
+				public Runnable setParameters(Feed feed, String host) {
+					this.feed = feed;
+					this.host = host;
+					return this;
+				}
+
+				@Override
+				public void run() {
+					if (pipeline.isStopping()) {
+						pipeline.getScheduler().release(host);
+						return;
+					}
+					final SharedFeed sharedFeed = pipeline.getFeedCache().get(feed);
+					if (sharedFeed != null && !sharedFeed.claim()) {
+						sharedFeed.addListener(new Runnable() {
+							@Override
+							public void run() {
+								submitParse(feed, host, null, 0, sharedFeed, pipeline);
+							}
+						});
+						return;
+					}
+					Future<FeedResponse> response;
+					long fetchStart = System.currentTimeMillis();
+					try {
+						response = feed.fetch(feedFetcher);
+					} catch (RuntimeException ex) {
+						if (sharedFeed != null)
+							sharedFeed.complete(null, ex);
+						failedFeeds.incrementAndGet();
+						log.error(messages.getString("ERROR_OCCURRED_WHILE_UPDATING_FEED"), ex);
+						pipeline.getScheduler().release(host);
+						return;
+					}
+					submitParse(feed, host, response, fetchStart, sharedFeed, pipeline);
+				}
+			}.setParameters(feed, host));
+		}
+		dueFeeds = null;
+	}
+
+	/**
+	 * Submits a downloaded feed to the parse stage. If the feed is shared and
+	 * this subscriber downloaded it, the parse task parses the feed for all
+	 * subscribers before merging it. Once the feed is merged, its latency
+	 * (from the start of the download) is passed to the scheduler's adaptive
+	 * limit.
+	 *
+	 * @param feed the feed
+	 * @param host the host key of the feed
+	 * @param response the Future for the feed response, or null if the feed
+	 * was downloaded by another subscriber
+	 * @param fetchStart the time (in milliseconds since the epoch) when the
+	 * download was started, or 0 if the feed was downloaded by another
+	 * subscriber
+	 * @param sharedFeed the shared download, or null if the feed is not
+	 * shared
+	 * @param pipeline the update pipeline
+	 */
+	private void submitParse(Feed feed, final String host, Future<FeedResponse> response, final long fetchStart, SharedFeed sharedFeed, final UpdatePipeline pipeline) {
+		try {
+			pipeline.getParseStage().submit(new Runnable() {
 				private Feed feed;
-				private ExecutorService executor;
+				private Future<FeedResponse> response;
+				private SharedFeed sharedFeed;
 
-				public Runnable setParameters(Feed feed, ExecutorService executor) {
+				public Runnable setParameters(Feed feed, Future<FeedResponse> response, SharedFeed sharedFeed) {
 					this.feed = feed;
-					this.executor = executor;
+					this.response = response;
+					this.sharedFeed = sharedFeed;
 					return this;
 				}
 
 				@Override
 				public void run() {
+					boolean failed = true;
 					try {
-						feed.update(feedItemHandler, cacheExpiryDate, executor);
-						feed.save();
-					} catch (Throwable thr) {
-						log.error(messages.getString("ERROR_OCCURRED_WHILE_UPDATING_FEED"), thr);//TODO: use an error handler
+						if (sharedFeed != null && response != null) {
+							try {
+								sharedFeed.complete(feed.parse(response, false), null);
+							} catch (RuntimeException ex) {
+								sharedFeed.complete(null, ex);
+							}
+							response = null;
+						}
+						failed = !updateFeed(feed, response, sharedFeed, pipeline);
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					} finally {
+						if (fetchStart > 0)
+							pipeline.getScheduler().release(host, System.currentTimeMillis() - fetchStart, failed);
+						else
+							pipeline.getScheduler().release(host);
 					}
 				}
-			}.setParameters(feed, executor));
-			futures.add(future);
+			}.setParameters(feed, response, sharedFeed));
+		} catch (InterruptedException | RuntimeException ex) {
+			if (sharedFeed != null && response != null)
+				sharedFeed.complete(null, new RuntimeException(MessageFormat.format(messages.getString("CANNOT_UPDATE_FEED"), new Object[]{feed.getUrl()}), ex));
+			failedFeeds.incrementAndGet();
+			log.error(messages.getString("ERROR_OCCURRED_WHILE_UPDATING_FEED"), ex);
+			pipeline.getScheduler().release(host);
+		}
+	}
+
+	/**
+	 * Saves the keys of feeds which were not finished by the last update, so
+	 * that the next update starts with them. Should be called after the
+	 * update pipeline is finished.
+	 */
+	public void saveProgress() {
+		Key progressKey = KeyFactory.createKey(settings.getKey(), FeedsState.class.getSimpleName(), "progress"); //NOI18N
+		if (unfinishedFeeds.isEmpty()) {
+			datastore.delete(progressKey);
+			return;
+		}
+		Entity progress = new Entity(progressKey);
+		progress.setUnindexedProperty("unfinishedFeeds", new ArrayList<>(unfinishedFeeds)); //NOI18N
+		datastore.put(progress);
+	}
+
+	/**
+	 * Loads the keys of feeds which were not finished by the previous update
+	 *
+	 * @return the keys of feeds which were not finished by the previous update
+	 */
+	private Set<Key> loadProgress() {
+		Key progressKey = KeyFactory.createKey(settings.getKey(), FeedsState.class.getSimpleName(), "progress"); //NOI18N
+		Set<Key> keys = new HashSet<>();
+		try {
+			Collection<Key> unfinishedKeys = (Collection<Key>) datastore.get(progressKey).getProperty("unfinishedFeeds"); //NOI18N
+			if (unfinishedKeys != null)
+				keys.addAll(unfinishedKeys);
+		} catch (EntityNotFoundException ex) {
 		}
-		for (Future<?> f : futures)
-			f.get();
-		List<Runnable> uncompletedTasks = executor.shutdownNow();
-		if (uncompletedTasks.isEmpty())
-			log.info(messages.getString("ALL_TASKS_FINISHED"));
-		else
-			log.error(messages.getString("DIDNT_COMPLETE_TASKS"), uncompletedTasks.size());
+		return keys;
+	}
+
+	/**
+	 * Logs the statistics of the last update
+	 */
+	public void logStatistics() {
+		log.info(messages.getString("FEEDS_UPDATE_STATISTICS"), new Object[]{settings.getUsername(), updatedFeeds.get(), notModifiedFeeds.get(), failedFeeds.get(), notDueFeeds, trippedFeeds, unfinishedFeeds.size()});
+	}
+
+	/**
+	 * Processes a feed download response and passes new items to the render
+	 * stage. Feeds without new items are queued to be saved immediately, other
+	 * feeds are saved once all of their new items are delivered. Feeds which
+	 * were not modified are saved to keep their polling schedule, and feeds
+	 * which failed to update are saved to keep their failure count and backoff
+	 * period.
+	 *
+	 * @param feed the feed
+	 * @param response the Future for the feed response, or null if the feed
+	 * is shared
+	 * @param sharedFeed the shared download, or null if the feed is not
+	 * shared
+	 * @param pipeline the update pipeline
+	 * @return true if the feed was updated, false if the update failed
+	 * @throws InterruptedException if the thread was interrupted while
+	 * waiting for space in the render stage
+	 */
+	private boolean updateFeed(Feed feed, Future<FeedResponse> response, SharedFeed sharedFeed, final UpdatePipeline pipeline) throws InterruptedException {
+		final DatastoreBatchWriter writer = pipeline.getWriter();
+		List<FeedItem> newItems = new ArrayList<>();
+		try {
+			ParsedFeed parsedFeed = sharedFeed != null ? sharedFeed.get() : feed.parse(response, true);
+			if (feed.update(parsedFeed, cacheExpiryDate, newItems))
+				updatedFeeds.incrementAndGet();
+			else
+				notModifiedFeeds.incrementAndGet();
+			if (newItems.isEmpty()) {
+				feed.save(writer, createSaveFailureCallback(feed));
+				unfinishedFeeds.remove(feed.getKey());
+			}
+		} catch (Throwable thr) {
+			failedFeeds.incrementAndGet();
+			log.error(messages.getString("ERROR_OCCURRED_WHILE_UPDATING_FEED"), thr);//TODO: use an error handler
+			try {
+				feed.recordFailure(thr);
+				feed.save(writer, createSaveFailureCallback(feed));
+				unfinishedFeeds.remove(feed.getKey());
+			} catch (RuntimeException ex) {
+				log.error(messages.getString("ERROR_OCCURRED_WHILE_UPDATING_FEED"), ex);
+			}
+			return false;
+		}
+		AtomicInteger pendingItems = new AtomicInteger(newItems.size());
+		for (FeedItem item : newItems)
+			pipeline.getRenderStage().submit(new Runnable() {
+				private Feed feed;
+				private FeedItem item;
+				private AtomicInteger pendingItems;
+
+				public Runnable setParameters(Feed feed, FeedItem item, AtomicInteger pendingItems) {
+					this.feed = feed;
+					this.item = item;
+					this.pendingItems = pendingItems;
+					return this;
+				}
+
+				@Override
+				public void run() {
+					try {
+						item.getItemText();
+						item.getItemHtml();
+					} catch (RuntimeException ex) {
+						log.error(MessageFormat.format(messages.getString("ERROR_HANDLING_FEED_ITEM"), new Object[]{item}), ex);
+						finishItem(feed, item, pendingItems, writer);
+						return;
+					}
+					try {
+						pipeline.getDeliverStage().submit(new Runnable() {
+							@Override
+							public void run() {
+								deliverItem(feed, item, pendingItems, pipeline);
+							}
+						});
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}.setParameters(feed, item, pendingItems));
+		return true;
+	}
+
+	/**
+	 * Passes a rendered item to the feed item handler and updates the deliver
+	 * stage's adaptive limit with the delivery latency
+	 *
+	 * @param feed the feed
+	 * @param item the feed item
+	 * @param pendingItems the number of the feed's items which are not
+	 * delivered yet
+	 * @param pipeline the update pipeline
+	 */
+	private void deliverItem(Feed feed, FeedItem item, AtomicInteger pendingItems, UpdatePipeline pipeline) {
+		long start = System.currentTimeMillis();
+		boolean failed = true;
+		try {
+			feedItemHandler.handle(feed, item);
+			failed = false;
+		} catch (RuntimeException ex) {
+			log.error(MessageFormat.format(messages.getString("ERROR_HANDLING_FEED_ITEM"), new Object[]{item}), ex);
+		} finally {
+			pipeline.getDeliverStage().sample(System.currentTimeMillis() - start, failed);
+			finishItem(feed, item, pendingItems, pipeline.getWriter());
+		}
+	}
+
+	/**
+	 * Releases a handled item's contents and queues the feed to be saved once
+	 * all of its new items are handled (and, for a BatchFeedItemHandler,
+	 * delivered)
+	 *
+	 * @param feed the feed
+	 * @param item the feed item
+	 * @param pendingItems the number of the feed's items which are not
+	 * delivered yet
+	 * @param writer the DatastoreBatchWriter which will save the feed
+	 */
+	private void finishItem(Feed feed, FeedItem item, AtomicInteger pendingItems, DatastoreBatchWriter writer) {
+		item.releaseContents();
+		if (pendingItems.decrementAndGet() > 0)
+			return;
+		if (feedItemHandler instanceof BatchFeedItemHandler) {
+			for (Feed finishedFeed : ((BatchFeedItemHandler) feedItemHandler).finishFeed(feed))
+				saveFeed(finishedFeed, writer);
+		} else {
+			saveFeed(feed, writer);
+		}
+	}
+
+	/**
+	 * Saves a feed whose new items were delivered and marks it as finished.
+	 * If the feed cannot be written, it's marked as unfinished again when the
+	 * writer is flushed.
+	 *
+	 * @param feed the feed
+	 * @param writer the DatastoreBatchWriter which will save the feed
+	 */
+	private void saveFeed(Feed feed, DatastoreBatchWriter writer) {
+		try {
+			feed.save(writer, createSaveFailureCallback(feed));
+			unfinishedFeeds.remove(feed.getKey());
+		} catch (RuntimeException ex) {
+			log.error(messages.getString("ERROR_OCCURRED_WHILE_UPDATING_FEED"), ex);
+		}
+	}
+
+	/**
+	 * Creates a callback which marks a feed as unfinished again if it cannot
+	 * be written
+	 *
+	 * @param feed the feed
+	 * @return the callback
+	 */
+	private Runnable createSaveFailureCallback(Feed feed) {
+		return new Runnable() {
+			private Key key;
+
+			public Runnable setParameters(Key key) {
+				this.key = key;
+				return this;
+			}
+
+			@Override
+			public void run() {
+				unfinishedFeeds.add(key);
+			}
+		}.setParameters(feed.getKey());
 	}
 }
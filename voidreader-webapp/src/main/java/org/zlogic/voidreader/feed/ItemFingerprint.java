@@ -0,0 +1,328 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.feed;
+
+import com.google.appengine.api.datastore.ShortBlob;
+import java.text.MessageFormat;
+import java.util.ResourceBundle;
+
+/**
+ * A 128-bit feed item identity. Computed with MurmurHash3 (x64, 128-bit) over
+ * the characters of the legacy string ID (feed URL, URI, link and title
+ * separated by "@@"), without building the string, so that legacy IDs can be
+ * migrated to the same fingerprint.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public final class ItemFingerprint implements Comparable<ItemFingerprint> {
+
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/voidreader/messages");
+	/**
+	 * The separator used between components of the legacy string ID
+	 */
+	private static final String SEPARATOR = "@@"; //NOI18N
+	/**
+	 * The size of the binary form in bytes
+	 */
+	private static final int SIZE = 16;
+	/**
+	 * The high 64 bits
+	 */
+	private final long high;
+	/**
+	 * The low 64 bits
+	 */
+	private final long low;
+
+	/**
+	 * Constructs an ItemFingerprint
+	 *
+	 * @param high the high 64 bits
+	 * @param low the low 64 bits
+	 */
+	public ItemFingerprint(long high, long low) {
+		this.high = high;
+		this.low = low;
+	}
+
+	/**
+	 * Computes the fingerprint for a feed item
+	 *
+	 * @param feedUrl the feed URL
+	 * @param uri the item URI
+	 * @param link the item link
+	 * @param title the item title
+	 * @return the fingerprint for the feed item
+	 */
+	public static ItemFingerprint create(String feedUrl, String uri, String link, String title) {
+		Hasher hasher = new Hasher();
+		hasher.append(feedUrl);
+		hasher.append(SEPARATOR);
+		hasher.append(uri);
+		hasher.append(SEPARATOR);
+		hasher.append(link);
+		hasher.append(SEPARATOR);
+		hasher.append(title);
+		return hasher.finish();
+	}
+
+	/**
+	 * Computes the fingerprint for a legacy string ID
+	 *
+	 * @param id the legacy string ID
+	 * @return the fingerprint for the legacy string ID
+	 */
+	public static ItemFingerprint fromLegacyId(String id) {
+		Hasher hasher = new Hasher();
+		hasher.append(id);
+		return hasher.finish();
+	}
+
+	/**
+	 * Restores a fingerprint from its binary form
+	 *
+	 * @param blob the binary form
+	 * @return the restored fingerprint
+	 */
+	public static ItemFingerprint fromShortBlob(ShortBlob blob) {
+		byte[] bytes = blob.getBytes();
+		if (bytes.length != SIZE)
+			throw new IllegalArgumentException(MessageFormat.format(messages.getString("INVALID_FINGERPRINT_SIZE"), bytes.length));
+		return new ItemFingerprint(readLong(bytes, 0), readLong(bytes, 8));
+	}
+
+	/**
+	 * Returns the binary form of this fingerprint
+	 *
+	 * @return the binary form of this fingerprint
+	 */
+	public ShortBlob toShortBlob() {
+		byte[] bytes = new byte[SIZE];
+		writeLong(bytes, 0, high);
+		writeLong(bytes, 8, low);
+		return new ShortBlob(bytes);
+	}
+
+	/**
+	 * Reads a big-endian long from a byte array
+	 *
+	 * @param bytes the byte array
+	 * @param offset the offset of the first byte
+	 * @return the long value
+	 */
+	private static long readLong(byte[] bytes, int offset) {
+		long value = 0;
+		for (int i = 0; i < 8; i++)
+			value = (value << 8) | (bytes[offset + i] & 0xffL);
+		return value;
+	}
+
+	/**
+	 * Writes a big-endian long into a byte array
+	 *
+	 * @param bytes the byte array
+	 * @param offset the offset of the first byte
+	 * @param value the long value
+	 */
+	private static void writeLong(byte[] bytes, int offset, long value) {
+		for (int i = 7; i >= 0; i--) {
+			bytes[offset + i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+
+	/**
+	 * Returns the high 64 bits
+	 *
+	 * @return the high 64 bits
+	 */
+	public long getHigh() {
+		return high;
+	}
+
+	/**
+	 * Returns the low 64 bits
+	 *
+	 * @return the low 64 bits
+	 */
+	public long getLow() {
+		return low;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof ItemFingerprint
+				&& ((ItemFingerprint) obj).high == high
+				&& ((ItemFingerprint) obj).low == low;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) low;
+	}
+
+	@Override
+	public int compareTo(ItemFingerprint o) {
+		int result = Long.compare(high, o.high);
+		return result != 0 ? result : Long.compare(low, o.low);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%016x%016x", high, low); //NOI18N
+	}
+
+	/**
+	 * Incremental MurmurHash3 x64 128-bit hasher which consumes UTF-16 chars
+	 * (as little-endian byte pairs) in 16-byte blocks.
+	 */
+	private static class Hasher {
+
+		/**
+		 * Mixing constant
+		 */
+		private static final long C1 = 0x87c37b91114253d5L;
+		/**
+		 * Mixing constant
+		 */
+		private static final long C2 = 0x4cf5ad432745937fL;
+		/**
+		 * The first half of the hash state
+		 */
+		private long h1 = 0;
+		/**
+		 * The second half of the hash state
+		 */
+		private long h2 = 0;
+		/**
+		 * The first 8 bytes of the current block
+		 */
+		private long k1 = 0;
+		/**
+		 * The last 8 bytes of the current block
+		 */
+		private long k2 = 0;
+		/**
+		 * The number of chars in the current block
+		 */
+		private int blockChars = 0;
+		/**
+		 * The total number of bytes consumed
+		 */
+		private long length = 0;
+
+		/**
+		 * Appends a string; null is appended as "null"
+		 *
+		 * @param value the string to append
+		 */
+		private void append(String value) {
+			if (value == null)
+				value = "null"; //NOI18N
+			for (int i = 0; i < value.length(); i++)
+				append(value.charAt(i));
+		}
+
+		/**
+		 * Appends a single char
+		 *
+		 * @param c the char to append
+		 */
+		private void append(char c) {
+			if (blockChars < 4)
+				k1 |= ((long) c) << (16 * blockChars);
+			else
+				k2 |= ((long) c) << (16 * (blockChars - 4));
+			blockChars++;
+			length += 2;
+			if (blockChars == 8) {
+				mixBlock();
+				k1 = 0;
+				k2 = 0;
+				blockChars = 0;
+			}
+		}
+
+		/**
+		 * Mixes a complete block into the hash state
+		 */
+		private void mixBlock() {
+			h1 ^= mixK1(k1);
+			h1 = Long.rotateLeft(h1, 27);
+			h1 += h2;
+			h1 = h1 * 5 + 0x52dce729;
+			h2 ^= mixK2(k2);
+			h2 = Long.rotateLeft(h2, 31);
+			h2 += h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+
+		/**
+		 * Mixes the tail and finalizes the hash
+		 *
+		 * @return the computed fingerprint
+		 */
+		private ItemFingerprint finish() {
+			if (blockChars > 0) {
+				h1 ^= mixK1(k1);
+				h2 ^= mixK2(k2);
+			}
+			h1 ^= length;
+			h2 ^= length;
+			h1 += h2;
+			h2 += h1;
+			h1 = fmix(h1);
+			h2 = fmix(h2);
+			h1 += h2;
+			h2 += h1;
+			return new ItemFingerprint(h1, h2);
+		}
+
+		/**
+		 * Mixes the first half of a block
+		 *
+		 * @param k the first half of a block
+		 * @return the mixed value
+		 */
+		private static long mixK1(long k) {
+			k *= C1;
+			k = Long.rotateLeft(k, 31);
+			k *= C2;
+			return k;
+		}
+
+		/**
+		 * Mixes the second half of a block
+		 *
+		 * @param k the second half of a block
+		 * @return the mixed value
+		 */
+		private static long mixK2(long k) {
+			k *= C2;
+			k = Long.rotateLeft(k, 33);
+			k *= C1;
+			return k;
+		}
+
+		/**
+		 * Final avalanche mix
+		 *
+		 * @param k the value to mix
+		 * @return the mixed value
+		 */
+		private static long fmix(long k) {
+			k ^= k >>> 33;
+			k *= 0xff51afd7ed558ccdL;
+			k ^= k >>> 33;
+			k *= 0xc4ceb9fe1a85ec53L;
+			k ^= k >>> 33;
+			return k;
+		}
+	}
+}
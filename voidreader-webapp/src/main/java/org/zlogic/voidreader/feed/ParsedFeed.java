@@ -0,0 +1,117 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.feed;
+
+import com.rometools.rome.feed.synd.SyndFeed;
+
+/**
+ * A parsed feed download, with the cache validators returned by the server.
+ * Can be shared by several subscribers of the same feed, so it should not be
+ * modified.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class ParsedFeed {
+
+	/**
+	 * The parsed feed, or null if the server reported that the feed was not
+	 * modified
+	 */
+	private final SyndFeed feed;
+	/**
+	 * The ETag returned by the server
+	 */
+	private final String etag;
+	/**
+	 * The Last-Modified date returned by the server
+	 */
+	private final String lastModified;
+	/**
+	 * True if the parser stopped before the end of the feed
+	 */
+	private final boolean truncated;
+
+	/**
+	 * Constructs a ParsedFeed for a feed which was not modified
+	 */
+	public ParsedFeed() {
+		this(null, null, null);
+	}
+
+	/**
+	 * Constructs a ParsedFeed
+	 *
+	 * @param feed the parsed feed
+	 * @param etag the ETag returned by the server
+	 * @param lastModified the Last-Modified date returned by the server
+	 */
+	public ParsedFeed(SyndFeed feed, String etag, String lastModified) {
+		this(feed, etag, lastModified, false);
+	}
+
+	/**
+	 * Constructs a ParsedFeed
+	 *
+	 * @param feed the parsed feed
+	 * @param etag the ETag returned by the server
+	 * @param lastModified the Last-Modified date returned by the server
+	 * @param truncated true if the parser stopped before the end of the feed
+	 */
+	public ParsedFeed(SyndFeed feed, String etag, String lastModified, boolean truncated) {
+		this.feed = feed;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.truncated = truncated;
+	}
+
+	/**
+	 * Returns true if the server reported that the feed was not modified
+	 *
+	 * @return true if the server reported that the feed was not modified
+	 */
+	public boolean isNotModified() {
+		return feed == null;
+	}
+
+	/**
+	 * Returns true if the parser stopped before the end of the feed, so that
+	 * entries which are missing from the parsed feed might still be in the
+	 * feed
+	 *
+	 * @return true if the parser stopped before the end of the feed
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * Returns the parsed feed
+	 *
+	 * @return the parsed feed, or null if the server reported that the feed
+	 * was not modified
+	 */
+	public SyndFeed getFeed() {
+		return feed;
+	}
+
+	/**
+	 * Returns the ETag returned by the server
+	 *
+	 * @return the ETag returned by the server
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * Returns the Last-Modified date returned by the server
+	 *
+	 * @return the Last-Modified date returned by the server
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+}
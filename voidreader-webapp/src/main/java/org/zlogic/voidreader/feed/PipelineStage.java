@@ -0,0 +1,185 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.feed;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.zlogic.voidreader.fetcher.AdaptiveLimit;
+
+/**
+ * A stage of the feed update pipeline: a pool of threads with a
+ * bounded queue. Submitting a task to a stage with a full queue blocks until a
+ * task of that stage is finished, so that a slow stage slows down the stages
+ * feeding it instead of accumulating tasks.
+ *
+ * The number of threads can follow an adaptive limit; the stage is resized
+ * after every finished task.
+ *
+ * A task which submits tasks to its own stage or to a previous stage can
+ * deadlock the pipeline, unless the number of such tasks is bounded and the
+ * stage's capacity (threads plus queue size) is large enough that submitting
+ * them never blocks. The parse stage relies on this: see UpdatePipeline.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class PipelineStage {
+
+	/**
+	 * The executor running tasks of this stage
+	 */
+	private final ThreadPoolExecutor executor;
+	/**
+	 * Permits for tasks which are queued or running
+	 */
+	private final Semaphore capacity;
+	/**
+	 * The limit of threads
+	 */
+	private final AdaptiveLimit threadLimit;
+
+	/**
+	 * Constructs a PipelineStage
+	 *
+	 * @param threads the number of threads
+	 * @param queueSize the maximum number of tasks waiting for a thread
+	 * @param threadFactory the ThreadFactory for creating threads
+	 */
+	public PipelineStage(int threads, int queueSize, ThreadFactory threadFactory) {
+		this(new AdaptiveLimit(threads, threads), queueSize, threadFactory);
+	}
+
+	/**
+	 * Constructs a PipelineStage with an adaptive number of threads
+	 *
+	 * @param threadLimit the limit of threads
+	 * @param queueSize the maximum number of tasks waiting for a thread (in
+	 * addition to the maximum number of threads)
+	 * @param threadFactory the ThreadFactory for creating threads
+	 */
+	public PipelineStage(AdaptiveLimit threadLimit, int queueSize, ThreadFactory threadFactory) {
+		this.threadLimit = threadLimit;
+		int threads = threadLimit.getLimit();
+		executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+		capacity = new Semaphore(threadLimit.getMaxLimit() + Math.max(queueSize, 0));
+	}
+
+	/**
+	 * Submits a task, waiting until the queue has space for it
+	 *
+	 * @param task the task to run
+	 * @throws InterruptedException if the thread was interrupted while
+	 * waiting
+	 */
+	public void submit(Runnable task) throws InterruptedException {
+		capacity.acquire();
+		try {
+			executor.execute(new Runnable() {
+				private Runnable task;
+
+				public Runnable setParameters(Runnable task) {
+					this.task = task;
+					return this;
+				}
+
+				@Override
+				public void run() {
+					try {
+						task.run();
+					} finally {
+						capacity.release();
+						resize();
+					}
+				}
+			}.setParameters(task));
+		} catch (RejectedExecutionException ex) {
+			capacity.release();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Updates the adaptive limit of threads with the result of a finished
+	 * task; the stage is resized once the task's thread is released
+	 *
+	 * @param latency the task latency in milliseconds
+	 * @param failed true if the task failed
+	 */
+	public void sample(long latency, boolean failed) {
+		threadLimit.sample(latency, failed, executor.getActiveCount());
+	}
+
+	/**
+	 * Changes the number of threads to match the limit
+	 */
+	private void resize() {
+		int threads = threadLimit.getLimit();
+		synchronized (executor) {
+			if (threads > executor.getMaximumPoolSize()) {
+				executor.setMaximumPoolSize(threads);
+				executor.setCorePoolSize(threads);
+			} else if (threads < executor.getMaximumPoolSize()) {
+				executor.setCorePoolSize(threads);
+				executor.setMaximumPoolSize(threads);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of running tasks
+	 *
+	 * @return the number of running tasks
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * Returns the current number of threads allowed by the limit
+	 *
+	 * @return the current number of threads allowed by the limit
+	 */
+	public int getLimit() {
+		return threadLimit.getLimit();
+	}
+
+	/**
+	 * Returns the number of tasks waiting for a thread
+	 *
+	 * @return the number of tasks waiting for a thread
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Stops accepting new tasks and waits until all submitted tasks are
+	 * finished, or until a deadline
+	 *
+	 * @param deadline the time (in milliseconds since the epoch) after which
+	 * waiting should stop
+	 * @return true if all tasks are finished, false if the deadline was
+	 * reached
+	 * @throws InterruptedException if the thread was interrupted while
+	 * waiting
+	 */
+	public boolean finish(long deadline) throws InterruptedException {
+		executor.shutdown();
+		return executor.awaitTermination(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops all running tasks and discards queued tasks
+	 *
+	 * @return the number of tasks which were discarded
+	 */
+	public int abort() {
+		return executor.shutdownNow().size();
+	}
+}
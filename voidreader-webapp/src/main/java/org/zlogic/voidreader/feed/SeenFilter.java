@@ -0,0 +1,275 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.feed;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ResourceBundle;
+
+/**
+ * Probabilistic set of feed items which were seen a long time ago. Consists of
+ * generations of Bloom filters; new items are added to the newest generation,
+ * and a generation is dropped once no items were added to it since the cache
+ * expiry date. Items which are still present in a feed are added again to the
+ * newest generation, so they don't expire.
+ *
+ * May report that an item was seen when it wasn't (with the configured false
+ * positive rate), but never the other way around.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class SeenFilter {
+
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/voidreader/messages");
+	/**
+	 * The current serialization format version
+	 */
+	private static final byte VERSION = 1;
+	/**
+	 * The number of items in a single generation
+	 */
+	private static final int GENERATION_CAPACITY = 4096;
+	/**
+	 * The false positive rate of a single generation
+	 */
+	private final double falsePositiveRate;
+	/**
+	 * The filter generations, oldest first
+	 */
+	private final List<Generation> generations = new ArrayList<>();
+
+	/**
+	 * A single Bloom filter generation
+	 */
+	private static class Generation {
+
+		/**
+		 * The filter bits
+		 */
+		private final long[] bits;
+		/**
+		 * The number of hash functions
+		 */
+		private final int hashCount;
+		/**
+		 * The number of items added to this generation
+		 */
+		private int count;
+		/**
+		 * The date when an item was last added to this generation
+		 */
+		private long lastAdded;
+
+		/**
+		 * Constructs a Generation
+		 *
+		 * @param bits the filter bits
+		 * @param hashCount the number of hash functions
+		 * @param count the number of items added to this generation
+		 * @param lastAdded the date when an item was last added to this
+		 * generation
+		 */
+		private Generation(long[] bits, int hashCount, int count, long lastAdded) {
+			this.bits = bits;
+			this.hashCount = hashCount;
+			this.count = count;
+			this.lastAdded = lastAdded;
+		}
+
+		/**
+		 * Returns the bit index for a hash function (double hashing from the
+		 * two halves of the fingerprint)
+		 *
+		 * @param id the item fingerprint
+		 * @param i the hash function number
+		 * @return the bit index
+		 */
+		private long getBit(ItemFingerprint id, int i) {
+			long hash = id.getHigh() + i * id.getLow();
+			return (hash & Long.MAX_VALUE) % (bits.length * 64L);
+		}
+
+		/**
+		 * Adds an item
+		 *
+		 * @param id the item fingerprint
+		 * @param date the current date
+		 */
+		private void add(ItemFingerprint id, long date) {
+			for (int i = 0; i < hashCount; i++) {
+				long bit = getBit(id, i);
+				bits[(int) (bit >>> 6)] |= 1L << bit;
+			}
+			count++;
+			lastAdded = date;
+		}
+
+		/**
+		 * Returns true if the item might have been added
+		 *
+		 * @param id the item fingerprint
+		 * @return true if the item might have been added
+		 */
+		private boolean mightContain(ItemFingerprint id) {
+			for (int i = 0; i < hashCount; i++) {
+				long bit = getBit(id, i);
+				if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+					return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Constructs an empty SeenFilter
+	 *
+	 * @param falsePositiveRate the false positive rate of a single generation
+	 */
+	public SeenFilter(double falsePositiveRate) {
+		this.falsePositiveRate = Math.min(Math.max(falsePositiveRate, 1e-9), 0.5);
+	}
+
+	/**
+	 * Restores a SeenFilter from its serialized form
+	 *
+	 * @param data the serialized filter
+	 * @param falsePositiveRate the false positive rate for new generations
+	 */
+	public SeenFilter(byte[] data, double falsePositiveRate) {
+		this(falsePositiveRate);
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+			byte version = in.readByte();
+			if (version != VERSION)
+				throw new IllegalArgumentException(MessageFormat.format(messages.getString("UNSUPPORTED_SEEN_FILTER_FORMAT"), new Object[]{version}));
+			int generationCount = in.readInt();
+			for (int i = 0; i < generationCount; i++) {
+				long lastAdded = in.readLong();
+				int count = in.readInt();
+				int hashCount = in.readInt();
+				long[] bits = new long[in.readInt()];
+				for (int j = 0; j < bits.length; j++)
+					bits[j] = in.readLong();
+				generations.add(new Generation(bits, hashCount, count, lastAdded));
+			}
+		} catch (IOException ex) {
+			throw new IllegalArgumentException(messages.getString("CANNOT_DECODE_SEEN_FILTER"), ex);
+		}
+	}
+
+	/**
+	 * Returns the serialized form of this filter
+	 *
+	 * @return the serialized filter
+	 */
+	public byte[] toByteArray() {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(buffer)) {
+			out.writeByte(VERSION);
+			out.writeInt(generations.size());
+			for (Generation generation : generations) {
+				out.writeLong(generation.lastAdded);
+				out.writeInt(generation.count);
+				out.writeInt(generation.hashCount);
+				out.writeInt(generation.bits.length);
+				for (long word : generation.bits)
+					out.writeLong(word);
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException(messages.getString("CANNOT_ENCODE_SEEN_FILTER"), ex);
+		}
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Adds an item to the newest generation, creating a new generation if the
+	 * newest one is full
+	 *
+	 * @param id the item fingerprint
+	 * @param date the current date
+	 */
+	public void add(ItemFingerprint id, Date date) {
+		Generation generation = generations.isEmpty() ? null : generations.get(generations.size() - 1);
+		if (generation == null || generation.count >= GENERATION_CAPACITY) {
+			//Optimal Bloom filter size and number of hash functions
+			double bitCount = -GENERATION_CAPACITY * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+			int hashCount = Math.max((int) Math.round(bitCount / GENERATION_CAPACITY * Math.log(2)), 1);
+			generation = new Generation(new long[(int) Math.ceil(bitCount / 64)], hashCount, 0, date.getTime());
+			generations.add(generation);
+		}
+		generation.add(id, date.getTime());
+	}
+
+	/**
+	 * Refreshes an item which is still present in a feed, so that it doesn't
+	 * expire. If the newest generation already contains the item, only its
+	 * last added date is updated.
+	 *
+	 * @param id the item fingerprint
+	 * @param date the current date
+	 * @return true if this filter was changed
+	 */
+	public boolean refresh(ItemFingerprint id, Date date) {
+		Generation generation = generations.isEmpty() ? null : generations.get(generations.size() - 1);
+		if (generation != null && generation.mightContain(id)) {
+			if (generation.lastAdded == date.getTime())
+				return false;
+			generation.lastAdded = date.getTime();
+			return true;
+		}
+		add(id, date);
+		return true;
+	}
+
+	/**
+	 * Returns true if the item might have been added to this filter
+	 *
+	 * @param id the item fingerprint
+	 * @return true if the item might have been added to this filter, false if
+	 * it definitely wasn't added
+	 */
+	public boolean mightContain(ItemFingerprint id) {
+		for (Generation generation : generations)
+			if (generation.mightContain(id))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Removes generations which had no items added since the expiry date
+	 *
+	 * @param expiryDate the date after which items expire
+	 * @return true if this filter was changed
+	 */
+	public boolean expire(Date expiryDate) {
+		boolean changed = false;
+		for (Iterator<Generation> it = generations.iterator(); it.hasNext();)
+			if (it.next().lastAdded < expiryDate.getTime()) {
+				it.remove();
+				changed = true;
+			}
+		return changed;
+	}
+
+	/**
+	 * Returns true if this filter contains no generations
+	 *
+	 * @return true if this filter contains no generations
+	 */
+	public boolean isEmpty() {
+		return generations.isEmpty();
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.feed;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-run cache of feed downloads which are shared by several subscribers.
+ * Subscribers are registered before the run starts; feeds with a single
+ * subscriber are not cached. The first subscriber of a shared feed downloads
+ * and parses it, other subscribers wait for its result (single-flight).
+ * Subscribers are keyed by the feed's fetch key (URL and cache validators),
+ * so that only identical requests are shared.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class SharedFeedCache {
+
+	/**
+	 * The number of registered subscribers for every fetch key which wasn't
+	 * requested yet
+	 */
+	private final Map<String, Integer> subscribers = new HashMap<>();
+	/**
+	 * The shared downloads for every fetch key which still has subscribers
+	 * that didn't request it
+	 */
+	private final Map<String, SharedFeed> feeds = new HashMap<>();
+
+	/**
+	 * A shared feed download. The first subscriber to claim it should
+	 * download and parse the feed and complete it; other subscribers should
+	 * add a listener.
+	 */
+	public static class SharedFeed {
+
+		/**
+		 * The number of subscribers which didn't request this download yet
+		 */
+		private int pendingSubscribers;
+		/**
+		 * True if a subscriber is already downloading the feed
+		 */
+		private boolean claimed = false;
+		/**
+		 * True if the download is complete
+		 */
+		private boolean done = false;
+		/**
+		 * The parsed feed
+		 */
+		private ParsedFeed result;
+		/**
+		 * The exception thrown by the download
+		 */
+		private RuntimeException exception;
+		/**
+		 * Listeners waiting for the download to complete
+		 */
+		private final List<Runnable> listeners = new ArrayList<>();
+
+		/**
+		 * Constructs a SharedFeed
+		 *
+		 * @param subscribers the number of subscribers
+		 */
+		private SharedFeed(int subscribers) {
+			this.pendingSubscribers = subscribers;
+		}
+
+		/**
+		 * Claims the download
+		 *
+		 * @return true if the caller should download the feed, false if it's
+		 * already being downloaded by another subscriber
+		 */
+		public synchronized boolean claim() {
+			if (claimed)
+				return false;
+			claimed = true;
+			return true;
+		}
+
+		/**
+		 * Completes the download and runs the listeners
+		 *
+		 * @param result the parsed feed, or null if the download failed
+		 * @param exception the exception thrown by the download, or null if
+		 * the download succeeded
+		 */
+		public void complete(ParsedFeed result, RuntimeException exception) {
+			List<Runnable> completeListeners;
+			synchronized (this) {
+				this.result = result;
+				this.exception = exception;
+				done = true;
+				completeListeners = new ArrayList<>(listeners);
+				listeners.clear();
+			}
+			for (Runnable listener : completeListeners)
+				listener.run();
+		}
+
+		/**
+		 * Adds a listener which is run once the download is complete (or
+		 * immediately if it's already complete)
+		 *
+		 * @param listener the listener
+		 */
+		public void addListener(Runnable listener) {
+			synchronized (this) {
+				if (!done) {
+					listeners.add(listener);
+					return;
+				}
+			}
+			listener.run();
+		}
+
+		/**
+		 * Returns the parsed feed. Should only be called after the download is
+		 * complete.
+		 *
+		 * @return the parsed feed
+		 * @throws RuntimeException the exception thrown by the download, if
+		 * it failed
+		 */
+		public synchronized ParsedFeed get() {
+			if (exception != null)
+				throw exception;
+			return result;
+		}
+	}
+
+	/**
+	 * Registers a subscriber of a feed
+	 *
+	 * @param feed the subscribed feed
+	 */
+	public synchronized void register(Feed feed) {
+		Integer count = subscribers.get(feed.getFetchKey());
+		subscribers.put(feed.getFetchKey(), count != null ? count + 1 : 1);
+	}
+
+	/**
+	 * Returns the shared download for a feed. Should be called once for every
+	 * registered subscriber; the download is removed from this cache once all
+	 * subscribers have requested it.
+	 *
+	 * @param feed the feed
+	 * @return the shared download, or null if the feed has only one
+	 * subscriber and shouldn't be shared
+	 */
+	public synchronized SharedFeed get(Feed feed) {
+		String key = feed.getFetchKey();
+		SharedFeed sharedFeed = feeds.get(key);
+		if (sharedFeed == null) {
+			Integer count = subscribers.remove(key);
+			if (count == null || count < 2)
+				return null;
+			sharedFeed = new SharedFeed(count);
+			feeds.put(key, sharedFeed);
+		}
+		if (--sharedFeed.pendingSubscribers <= 0)
+			feeds.remove(key);
+		return sharedFeed;
+	}
+}
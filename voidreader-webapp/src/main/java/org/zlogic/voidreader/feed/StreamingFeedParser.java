@@ -0,0 +1,481 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.feed;
+
+import com.rometools.rome.feed.synd.SyndContent;
+import com.rometools.rome.feed.synd.SyndContentImpl;
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.feed.synd.SyndEntryImpl;
+import com.rometools.rome.feed.synd.SyndFeed;
+import com.rometools.rome.feed.synd.SyndFeedImpl;
+import com.rometools.rome.io.FeedException;
+import com.rometools.rome.io.impl.DateParser;
+import com.rometools.rome.io.impl.XmlFixerReader;
+import java.io.Reader;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * StAX-based RSS/Atom parser which reads entries one at a time and stops
+ * reading the document after encountering a number of consecutive entries
+ * which are already known.
+ *
+ * Entries are converted to SyndEntry instances with the same URI, link and
+ * title values that ROME would produce, so that feed item IDs don't depend on
+ * the parser used. The document is healed with ROME's XmlFixerReader, like
+ * SyndFeedInput does by default.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class StreamingFeedParser {
+
+	/**
+	 * Interface for checking if an entry is already known.
+	 */
+	public interface EntryFilter {
+
+		/**
+		 * Returns true if the entry is already known
+		 *
+		 * @param entry the entry to check
+		 * @return true if the entry is already known
+		 */
+		public boolean isKnown(SyndEntry entry);
+	}
+
+	/**
+	 * Supported feed formats
+	 */
+	private enum Format {
+
+		/**
+		 * RSS 0.9x/2.0
+		 */
+		RSS,
+		/**
+		 * RSS 0.90/1.0 (RDF)
+		 */
+		RDF,
+		/**
+		 * Atom 0.3/1.0
+		 */
+		ATOM
+	};
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/voidreader/messages");
+	/**
+	 * The logger
+	 */
+	private static final Logger log = LoggerFactory.getLogger(StreamingFeedParser.class);
+	/**
+	 * The RDF namespace
+	 */
+	private static final String NAMESPACE_RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#"; //NOI18N
+	/**
+	 * The Dublin Core namespace
+	 */
+	private static final String NAMESPACE_DC = "http://purl.org/dc/elements/1.1/"; //NOI18N
+	/**
+	 * The RSS content module namespace
+	 */
+	private static final String NAMESPACE_CONTENT = "http://purl.org/rss/1.0/modules/content/"; //NOI18N
+	/**
+	 * The Atom 0.3 namespace
+	 */
+	private static final String NAMESPACE_ATOM03 = "http://purl.org/atom/ns#"; //NOI18N
+	/**
+	 * The StAX input factory
+	 */
+	private static final XMLInputFactory inputFactory;
+
+	static {
+		inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+	/**
+	 * The number of consecutive known entries after which parsing stops
+	 */
+	private final int knownEntriesLimit;
+	/**
+	 * True if the last parse stopped before the end of the document
+	 */
+	private boolean truncated;
+
+	/**
+	 * Constructs a StreamingFeedParser
+	 *
+	 * @param knownEntriesLimit the number of consecutive known entries after
+	 * which parsing stops
+	 */
+	public StreamingFeedParser(int knownEntriesLimit) {
+		this.knownEntriesLimit = knownEntriesLimit;
+	}
+
+	/**
+	 * Parses a feed document. Stops reading after encountering
+	 * knownEntriesLimit consecutive entries which are known to the filter; the
+	 * returned feed will contain all entries read until that point.
+	 *
+	 * @param reader the feed document reader
+	 * @param filter the filter to check if an entry is already known
+	 * @return the feed
+	 * @throws FeedException if the document cannot be parsed
+	 */
+	public SyndFeed parse(Reader reader, EntryFilter filter) throws FeedException {
+		truncated = false;
+		XMLStreamReader streamReader = null;
+		try {
+			streamReader = inputFactory.createXMLStreamReader(new XmlFixerReader(reader));
+			while (streamReader.hasNext() && streamReader.next() != XMLStreamConstants.START_ELEMENT);
+			if (!streamReader.isStartElement())
+				throw new FeedException(messages.getString("FEED_DOCUMENT_IS_EMPTY"));
+			Format format;
+			String rootName = streamReader.getLocalName();
+			if (rootName.equals("rss")) //NOI18N
+				format = Format.RSS;
+			else if (rootName.equals("RDF") && NAMESPACE_RDF.equals(streamReader.getNamespaceURI())) //NOI18N
+				format = Format.RDF;
+			else if (rootName.equals("feed")) //NOI18N
+				format = Format.ATOM;
+			else
+				throw new FeedException(MessageFormat.format(messages.getString("UNSUPPORTED_FEED_FORMAT"), new Object[]{rootName}));
+			String version = format == Format.RSS ? streamReader.getAttributeValue(null, "version") : null; //NOI18N
+			boolean guidSupported = version != null && (version.equals("0.94") || version.startsWith("2.0")); //NOI18N
+
+			SyndFeed feed = new SyndFeedImpl();
+			List<SyndEntry> entries = new ArrayList<>();
+			int knownEntries = 0;
+			int depth = 1;
+			while (streamReader.hasNext() && depth > 0) {
+				int event = streamReader.next();
+				if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
+					continue;
+				} else if (event != XMLStreamConstants.START_ELEMENT) {
+					continue;
+				}
+				depth++;
+				String name = streamReader.getLocalName();
+				if ((format != Format.ATOM && name.equals("item")) || (format == Format.ATOM && name.equals("entry"))) { //NOI18N
+					SyndEntry entry = format == Format.ATOM ? readAtomEntry(streamReader) : readRssEntry(streamReader, format, guidSupported);
+					depth--;
+					entries.add(entry);
+					knownEntries = filter.isKnown(entry) ? knownEntries + 1 : 0;
+					if (knownEntriesLimit > 0 && knownEntries >= knownEntriesLimit) {
+						truncated = true;
+						break;
+					}
+				} else if (name.equals("title") && feed.getTitle() == null && ((format == Format.ATOM && depth == 2) || (format != Format.ATOM && depth == 3))) { //NOI18N
+					feed.setTitle(readContent(streamReader));
+					depth--;
+				}
+			}
+			feed.setEntries(entries);
+			return feed;
+		} catch (XMLStreamException ex) {
+			throw new FeedException(ex.getMessage(), ex);
+		} finally {
+			if (streamReader != null)
+				try {
+					streamReader.close();
+				} catch (XMLStreamException ex) {
+					log.warn(messages.getString("CANNOT_CLOSE_FEED_READER"), ex);
+				}
+		}
+	}
+
+	/**
+	 * Returns true if the last parse stopped before reaching the end of the
+	 * document.
+	 *
+	 * @return true if the last parse stopped before reaching the end of the
+	 * document
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * Reads an RSS item. The reader should be positioned at the item start
+	 * element; after returning, the reader will be positioned at the item end
+	 * element.
+	 *
+	 * Like ROME, the title, link and guid are not trimmed, and the guid is only
+	 * used in RSS 0.94 and 2.0 feeds; a guid is only used as the link if it's
+	 * explicitly marked as a permalink.
+	 *
+	 * @param reader the XMLStreamReader
+	 * @param format the feed format
+	 * @param guidSupported true if the RSS version supports the guid element
+	 * @return the SyndEntry
+	 * @throws XMLStreamException if the item cannot be read
+	 */
+	private SyndEntry readRssEntry(XMLStreamReader reader, Format format, boolean guidSupported) throws XMLStreamException {
+		String itemNamespace = reader.getNamespaceURI();
+		String about = reader.getAttributeValue(NAMESPACE_RDF, "about"); //NOI18N
+		String title = null, link = null, guid = null, description = null, encoded = null;
+		boolean permaLink = false;
+		Date pubDate = null, dcDate = null;
+		while (nextChildElement(reader)) {
+			String name = reader.getLocalName();
+			String namespace = reader.getNamespaceURI();
+			boolean itemElement = itemNamespace == null ? namespace == null || namespace.isEmpty() : itemNamespace.equals(namespace);
+			if (itemElement && name.equals("title") && title == null) //NOI18N
+				title = readText(reader);
+			else if (itemElement && name.equals("link") && link == null) //NOI18N
+				link = readText(reader);
+			else if (itemElement && name.equals("guid") && guid == null && guidSupported) { //NOI18N
+				String isPermaLink = reader.getAttributeValue(null, "isPermaLink"); //NOI18N
+				permaLink = isPermaLink != null && isPermaLink.equalsIgnoreCase("true"); //NOI18N
+				guid = readText(reader);
+			} else if (itemElement && name.equals("description") && description == null) //NOI18N
+				description = readContent(reader);
+			else if (itemElement && name.equals("pubDate") && pubDate == null) //NOI18N
+				pubDate = parseDate(readContent(reader));
+			else if (NAMESPACE_CONTENT.equals(namespace) && name.equals("encoded") && encoded == null) //NOI18N
+				encoded = readContent(reader);
+			else if (NAMESPACE_DC.equals(namespace) && name.equals("date") && dcDate == null) //NOI18N
+				dcDate = parseDate(readContent(reader));
+			else
+				skipElement(reader);
+		}
+
+		SyndEntry entry = new SyndEntryImpl();
+		entry.setTitle(title);
+		entry.setLink(link != null || !permaLink ? link : guid);
+		if (format == Format.RDF)
+			entry.setUri(about != null ? about : link);
+		else
+			entry.setUri(guid != null ? guid : link);
+		if (description != null)
+			entry.setDescription(createContent("text/html", description)); //NOI18N
+		if (encoded != null)
+			entry.setContents(Collections.singletonList(createContent("html", encoded))); //NOI18N
+		if (pubDate != null || dcDate != null)
+			entry.setPublishedDate(pubDate != null ? pubDate : dcDate);
+		return entry;
+	}
+
+	/**
+	 * Reads an Atom entry. The reader should be positioned at the entry start
+	 * element; after returning, the reader will be positioned at the entry end
+	 * element.
+	 *
+	 * Like ROME (with the default Atom10Parser settings), relative links are
+	 * not resolved against xml:base.
+	 *
+	 * @param reader the XMLStreamReader
+	 * @return the SyndEntry
+	 * @throws XMLStreamException if the entry cannot be read
+	 */
+	private SyndEntry readAtomEntry(XMLStreamReader reader) throws XMLStreamException {
+		String entryNamespace = reader.getNamespaceURI();
+		boolean atom03 = NAMESPACE_ATOM03.equals(entryNamespace);
+		String id = null, title = null, link = null;
+		SyndContent summary = null, content = null;
+		Date published = null, updated = null;
+		while (nextChildElement(reader)) {
+			String name = reader.getLocalName();
+			boolean entryElement = entryNamespace == null ? reader.getNamespaceURI() == null : entryNamespace.equals(reader.getNamespaceURI());
+			if (!entryElement)
+				skipElement(reader);
+			else if (name.equals("id") && id == null) //NOI18N
+				id = readContent(reader);
+			else if (name.equals("title") && title == null) //NOI18N
+				title = readContent(reader);
+			else if (name.equals("link") && link == null && isAlternateLink(reader)) { //NOI18N
+				link = reader.getAttributeValue(null, "href"); //NOI18N
+				skipElement(reader);
+			} else if (name.equals("summary") && summary == null) //NOI18N
+				summary = createContent(reader.getAttributeValue(null, "type"), readContent(reader)); //NOI18N
+			else if (name.equals("content") && content == null) //NOI18N
+				content = createContent(reader.getAttributeValue(null, "type"), readContent(reader)); //NOI18N
+			else if (((!atom03 && name.equals("published")) || (atom03 && name.equals("modified"))) && published == null) //NOI18N
+				published = parseDate(readContent(reader));
+			else if (!atom03 && name.equals("updated") && updated == null) //NOI18N
+				updated = parseDate(readContent(reader));
+			else
+				skipElement(reader);
+		}
+
+		SyndEntry entry = new SyndEntryImpl();
+		entry.setTitle(title);
+		entry.setLink(link);
+		entry.setUri(id != null ? id : link);
+		entry.setDescription(summary);
+		if (content != null)
+			entry.setContents(Collections.singletonList(content));
+		if (published != null)
+			entry.setPublishedDate(published);
+		if (updated != null)
+			entry.setUpdatedDate(updated);
+		return entry;
+	}
+
+	/**
+	 * Returns true if the reader is positioned at an Atom alternate link.
+	 *
+	 * @param reader the XMLStreamReader
+	 * @return true if the reader is positioned at an Atom alternate link
+	 */
+	private boolean isAlternateLink(XMLStreamReader reader) {
+		String rel = reader.getAttributeValue(null, "rel"); //NOI18N
+		return rel == null || rel.trim().equals("alternate"); //NOI18N
+	}
+
+	/**
+	 * Parses a date in any format supported by ROME
+	 *
+	 * @param date the date string
+	 * @return the parsed date, or null if the date cannot be parsed
+	 */
+	private Date parseDate(String date) {
+		return date != null ? DateParser.parseDate(date.trim(), Locale.US) : null;
+	}
+
+	/**
+	 * Creates a SyndContent instance
+	 *
+	 * @param type the content type
+	 * @param value the content value
+	 * @return the SyndContent
+	 */
+	private SyndContent createContent(String type, String value) {
+		SyndContent content = new SyndContentImpl();
+		content.setType(type);
+		content.setValue(value);
+		return content;
+	}
+
+	/**
+	 * Reads the contents of the current element. Text is returned as-is, child
+	 * elements (e.g. XHTML content) are serialized as XML. After returning, the
+	 * reader will be positioned at the element's end element.
+	 *
+	 * @param reader the XMLStreamReader
+	 * @return the element contents
+	 * @throws XMLStreamException if the element cannot be read
+	 */
+	private String readContent(XMLStreamReader reader) throws XMLStreamException {
+		StringBuilder content = new StringBuilder();
+		int depth = 0;
+		while (true) {
+			int event = reader.next();
+			switch (event) {
+				case XMLStreamConstants.START_ELEMENT:
+					depth++;
+					content.append('<').append(getQualifiedName(reader.getPrefix(), reader.getLocalName()));
+					for (int i = 0; i < reader.getNamespaceCount(); i++)
+						content.append(' ').append(getQualifiedName("xmlns", reader.getNamespacePrefix(i))) //NOI18N
+								.append("=\"").append(StringEscapeUtils.escapeXml10(reader.getNamespaceURI(i))).append('"'); //NOI18N
+					for (int i = 0; i < reader.getAttributeCount(); i++)
+						content.append(' ').append(getQualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)))
+								.append("=\"").append(StringEscapeUtils.escapeXml10(reader.getAttributeValue(i))).append('"'); //NOI18N
+					content.append('>');
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					if (depth-- == 0)
+						return content.toString();
+					content.append("</").append(getQualifiedName(reader.getPrefix(), reader.getLocalName())).append('>'); //NOI18N
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					content.append(depth == 0 ? reader.getText() : StringEscapeUtils.escapeXml10(reader.getText()));
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Reads the text of the current element, like JDOM's Element.getText().
+	 * Text of child elements is ignored. After returning, the reader will be
+	 * positioned at the element's end element.
+	 *
+	 * @param reader the XMLStreamReader
+	 * @return the element text
+	 * @throws XMLStreamException if the element cannot be read
+	 */
+	private String readText(XMLStreamReader reader) throws XMLStreamException {
+		StringBuilder text = new StringBuilder();
+		for (int depth = 0; depth >= 0;) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				depth--;
+			else if (depth == 0 && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE))
+				text.append(reader.getText());
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Moves the reader to the next child element, skipping any text, comments
+	 * or processing instructions.
+	 *
+	 * @param reader the XMLStreamReader
+	 * @return true if the reader is positioned at a child start element, false
+	 * if the reader is positioned at the parent's end element
+	 * @throws XMLStreamException if the element cannot be read
+	 */
+	private boolean nextChildElement(XMLStreamReader reader) throws XMLStreamException {
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				return true;
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				return false;
+		}
+	}
+
+	/**
+	 * Skips the current element. After returning, the reader will be
+	 * positioned at the element's end element.
+	 *
+	 * @param reader the XMLStreamReader
+	 * @throws XMLStreamException if the element cannot be read
+	 */
+	private void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		for (int depth = 0; depth >= 0;) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				depth--;
+		}
+	}
+
+	/**
+	 * Returns the qualified name of an element or attribute
+	 *
+	 * @param prefix the namespace prefix, or null
+	 * @param localName the local name
+	 * @return the qualified name
+	 */
+	private String getQualifiedName(String prefix, String localName) {
+		if (localName == null || localName.isEmpty())
+			return prefix;
+		return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName; //NOI18N
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.feed;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.apphosting.api.ApiProxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.ThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zlogic.voidreader.Settings;
+import org.zlogic.voidreader.fetcher.AdaptiveLimit;
+import org.zlogic.voidreader.fetcher.HostScheduler;
+
+/**
+ * The stages of a feed update run: the fetch scheduler, the parse, render and
+ * deliver stages and the Datastore writer. A single pipeline can be shared by
+ * the updates of several users, so that all users are updated within one
+ * concurrency budget; the fetch scheduler takes users in a round-robin order,
+ * and feeds subscribed by several users are downloaded once. The number of
+ * downloads in flight and the number of delivery threads follow adaptive
+ * limits.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class UpdatePipeline {
+
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/voidreader/messages");
+	/**
+	 * The logger
+	 */
+	private static final Logger log = LoggerFactory.getLogger(UpdatePipeline.class);
+	/**
+	 * Interval in milliseconds for logging pipeline metrics while waiting for
+	 * the pipeline to finish
+	 */
+	private static final long METRICS_INTERVAL = 30000L;
+	/**
+	 * The scheduler which starts feed downloads
+	 */
+	private final HostScheduler scheduler;
+	/**
+	 * The stage which parses downloaded feeds
+	 */
+	private final PipelineStage parseStage;
+	/**
+	 * The stage which renders new items
+	 */
+	private final PipelineStage renderStage;
+	/**
+	 * The stage which delivers rendered items
+	 */
+	private final PipelineStage deliverStage;
+	/**
+	 * The DatastoreBatchWriter which saves updated feeds
+	 */
+	private final DatastoreBatchWriter writer;
+	/**
+	 * The cache of feed downloads shared by several subscribers
+	 */
+	private final SharedFeedCache feedCache = new SharedFeedCache();
+	/**
+	 * The time (in milliseconds since the epoch) after which new feeds should
+	 * not be started
+	 */
+	private final long stopTime;
+	/**
+	 * The time (in milliseconds since the epoch) after which unfinished tasks
+	 * are cancelled
+	 */
+	private final long cancelTime;
+	/**
+	 * Tasks which are run once all stages are finished, before updated feeds
+	 * are written
+	 */
+	private final List<Runnable> finishTasks = Collections.synchronizedList(new ArrayList<Runnable>());
+
+	/**
+	 * Constructs an UpdatePipeline. Threads are created with the current
+	 * request's ThreadFactory, so the pipeline should be finished before the
+	 * request ends; the request deadline is used to decide when the pipeline
+	 * should stop starting new feeds and cancel unfinished tasks.
+	 *
+	 * Parse tasks submit parse tasks to their own stage: releasing a host
+	 * slot starts pending downloads, and a completed shared feed notifies its
+	 * other subscribers. This doesn't deadlock because every parse task is
+	 * submitted by a task which holds a scheduler slot until the parse task
+	 * finishes. At most feed.max_in_flight parse tasks hold slots, plus one
+	 * for every parse thread which released its slot but hasn't returned yet.
+	 * The parse stage's capacity covers both, so submitting a parse task never
+	 * blocks.
+	 *
+	 * @param settings the settings with the stage sizes
+	 */
+	public UpdatePipeline(Settings settings) {
+		ThreadFactory threadFactory = ThreadManager.currentRequestThreadFactory();
+		scheduler = new HostScheduler(new AdaptiveLimit(settings.getFeedMinInFlight(), settings.getFeedMaxInFlight()), settings.getFeedMaxPerHost());
+		//Parse tasks submit parse tasks, so the parse stage needs room for every download in flight
+		parseStage = new PipelineStage(settings.getPipelineParseThreads(), settings.getFeedMaxInFlight(), threadFactory);
+		renderStage = new PipelineStage(settings.getPipelineRenderThreads(), settings.getPipelineQueueSize(), threadFactory);
+		deliverStage = new PipelineStage(new AdaptiveLimit(settings.getPipelineMinDeliverThreads(), settings.getPipelineDeliverThreads()), settings.getPipelineQueueSize(), threadFactory);
+		writer = new DatastoreBatchWriter(settings.getDatastoreBatchSize());
+		ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+		if (environment != null) {
+			long deadline = System.currentTimeMillis() + environment.getRemainingMillis();
+			stopTime = deadline - settings.getUpdateStopMargin() * 1000L;
+			cancelTime = deadline - settings.getUpdateCancelMargin() * 1000L;
+		} else {
+			stopTime = Long.MAX_VALUE;
+			cancelTime = Long.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Returns true if the request deadline is close and new feeds should not
+	 * be started
+	 *
+	 * @return true if new feeds should not be started
+	 */
+	public boolean isStopping() {
+		return System.currentTimeMillis() >= stopTime;
+	}
+
+	/**
+	 * Adds a task which is run once all stages are finished (or cancelled),
+	 * before updated feeds are written. Finish tasks can save feeds with the
+	 * writer.
+	 *
+	 * @param task the task
+	 */
+	public void addFinishTask(Runnable task) {
+		finishTasks.add(task);
+	}
+
+	/**
+	 * Waits until all submitted feeds are downloaded, parsed and their items
+	 * are delivered, stops the stages, runs the finish tasks and writes all
+	 * updated feeds. If the
+	 * request deadline is close, pending feeds are discarded and unfinished
+	 * tasks are interrupted, so that feeds which were already saved can be
+	 * written before the deadline. Pipeline metrics are logged periodically
+	 * while waiting.
+	 *
+	 * @return true if all tasks were finished and all feeds were written,
+	 * false if tasks were cancelled or writing failed
+	 * @throws InterruptedException if the thread was interrupted while
+	 * waiting
+	 */
+	public boolean finish() throws InterruptedException {
+		boolean complete = false;
+		try {
+			boolean idle;
+			do {
+				idle = scheduler.awaitIdle(Math.min(System.currentTimeMillis() + METRICS_INTERVAL, cancelTime));
+				logMetrics();
+			} while (!idle && System.currentTimeMillis() < cancelTime);
+			complete = idle && parseStage.finish(cancelTime) && renderStage.finish(cancelTime) && deliverStage.finish(cancelTime);
+			if (complete)
+				log.info(messages.getString("ALL_TASKS_FINISHED"));
+			else
+				log.error(messages.getString("UPDATE_DEADLINE_REACHED"));
+		} finally {
+			int uncompletedTasks = scheduler.cancel() + parseStage.abort() + renderStage.abort() + deliverStage.abort();
+			if (uncompletedTasks > 0)
+				log.error(messages.getString("DIDNT_COMPLETE_TASKS"), uncompletedTasks);
+		}
+		synchronized (finishTasks) {
+			for (Runnable task : finishTasks)
+				try {
+					task.run();
+				} catch (RuntimeException ex) {
+					log.error(messages.getString("CANNOT_FINISH_UPDATE_TASK"), ex);
+				}
+		}
+		try {
+			writer.flush();
+		} catch (RuntimeException ex) {
+			log.error(messages.getString("CANNOT_WRITE_TO_DATASTORE"), ex);
+			complete = false;
+		}
+		return complete;
+	}
+
+	/**
+	 * Logs the current limits and queue depths of the pipeline
+	 */
+	public void logMetrics() {
+		log.info(messages.getString("PIPELINE_METRICS"), new Object[]{scheduler.getInFlight(), scheduler.getLimit(), scheduler.getPending(), parseStage.getQueueDepth(), renderStage.getQueueDepth(), deliverStage.getActiveCount(), deliverStage.getLimit(), deliverStage.getQueueDepth()});
+	}
+
+	/**
+	 * Returns the scheduler which starts feed downloads
+	 *
+	 * @return the scheduler which starts feed downloads
+	 */
+	public HostScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * Returns the stage which parses downloaded feeds
+	 *
+	 * @return the stage which parses downloaded feeds
+	 */
+	public PipelineStage getParseStage() {
+		return parseStage;
+	}
+
+	/**
+	 * Returns the stage which renders new items
+	 *
+	 * @return the stage which renders new items
+	 */
+	public PipelineStage getRenderStage() {
+		return renderStage;
+	}
+
+	/**
+	 * Returns the stage which delivers rendered items
+	 *
+	 * @return the stage which delivers rendered items
+	 */
+	public PipelineStage getDeliverStage() {
+		return deliverStage;
+	}
+
+	/**
+	 * Returns the DatastoreBatchWriter which saves updated feeds
+	 *
+	 * @return the DatastoreBatchWriter which saves updated feeds
+	 */
+	public DatastoreBatchWriter getWriter() {
+		return writer;
+	}
+
+	/**
+	 * Returns the cache of feed downloads shared by several subscribers
+	 *
+	 * @return the cache of feed downloads shared by several subscribers
+	 */
+	public SharedFeedCache getFeedCache() {
+		return feedCache;
+	}
+}
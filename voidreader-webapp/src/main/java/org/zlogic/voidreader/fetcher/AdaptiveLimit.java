@@ -0,0 +1,124 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.fetcher;
+
+/**
+ * Adaptive concurrency limit based on the latency gradient. Keeps track of the
+ * best observed (no-load) latency; while the current latency stays within a
+ * tolerance of it, the limit grows by about the square root of the limit,
+ * and once latency rises (or tasks start to fail), the limit shrinks
+ * proportionally. Changes are smoothed, and the limit doesn't grow while less
+ * than half of it is used.
+ *
+ * A limit with equal minimum and maximum values never changes.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class AdaptiveLimit {
+
+	/**
+	 * Latency which is still considered to be no-load, relative to the best
+	 * observed latency
+	 */
+	private static final double LATENCY_TOLERANCE = 2.0;
+	/**
+	 * The smallest allowed gradient (the fastest decrease of the limit)
+	 */
+	private static final double MIN_GRADIENT = 0.5;
+	/**
+	 * The weight of a new limit estimate
+	 */
+	private static final double SMOOTHING = 0.2;
+	/**
+	 * The weight of a new sample in the error rate
+	 */
+	private static final double ERROR_RATE_WEIGHT = 0.1;
+	/**
+	 * How fast the no-load latency follows larger latencies, so that it adapts
+	 * to slower networks
+	 */
+	private static final double BASELINE_DRIFT = 0.01;
+	/**
+	 * The minimum limit
+	 */
+	private final int minLimit;
+	/**
+	 * The maximum limit
+	 */
+	private final int maxLimit;
+	/**
+	 * The current limit
+	 */
+	private double limit;
+	/**
+	 * The estimated no-load latency in milliseconds, or 0 if there were no
+	 * samples yet
+	 */
+	private double baselineLatency = 0;
+	/**
+	 * The smoothed rate of failed tasks
+	 */
+	private double errorRate = 0;
+
+	/**
+	 * Constructs an AdaptiveLimit which starts at the minimum limit
+	 *
+	 * @param minLimit the minimum limit
+	 * @param maxLimit the maximum limit
+	 */
+	public AdaptiveLimit(int minLimit, int maxLimit) {
+		this.maxLimit = Math.max(maxLimit, 1);
+		this.minLimit = Math.min(Math.max(minLimit, 1), this.maxLimit);
+		this.limit = this.minLimit;
+	}
+
+	/**
+	 * Updates the limit with the result of a finished task
+	 *
+	 * @param latency the task latency in milliseconds
+	 * @param failed true if the task failed
+	 * @param inFlight the number of tasks in flight when the task finished
+	 */
+	public synchronized void sample(long latency, boolean failed, int inFlight) {
+		if (minLimit == maxLimit)
+			return;
+		latency = Math.max(latency, 1);
+		errorRate += ((failed ? 1.0 : 0.0) - errorRate) * ERROR_RATE_WEIGHT;
+		if (!failed) {
+			if (baselineLatency == 0 || latency < baselineLatency)
+				baselineLatency = latency;
+			else
+				baselineLatency += (latency - baselineLatency) * BASELINE_DRIFT;
+		}
+		if (baselineLatency == 0)
+			return;
+		double gradient = Math.min(LATENCY_TOLERANCE * baselineLatency / latency, 1.0 - errorRate);
+		gradient = Math.max(Math.min(gradient, 1.0), MIN_GRADIENT);
+		if (gradient >= 1.0 && inFlight < limit / 2)
+			return;
+		double newLimit = limit * gradient + Math.sqrt(limit);
+		limit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+		limit = Math.max(Math.min(limit, maxLimit), minLimit);
+	}
+
+	/**
+	 * Returns the current limit
+	 *
+	 * @return the current limit
+	 */
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	/**
+	 * Returns the maximum limit
+	 *
+	 * @return the maximum limit
+	 */
+	public int getMaxLimit() {
+		return maxLimit;
+	}
+}
@@ -0,0 +1,27 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.fetcher;
+
+import java.util.concurrent.Future;
+
+/**
+ * Interface for engines which download feeds.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public interface FeedFetcher {
+
+	/**
+	 * Starts downloading a feed. Depending on the implementation, the download
+	 * is either performed asynchronously or when the result is requested from
+	 * the returned Future. Download errors are reported by the returned
+	 * Future.
+	 *
+	 * @param request the feed request
+	 * @return the Future for the feed response
+	 */
+	public Future<FeedResponse> fetch(FeedRequest request);
+}
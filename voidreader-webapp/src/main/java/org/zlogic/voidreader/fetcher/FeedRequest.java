@@ -0,0 +1,98 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.fetcher;
+
+/**
+ * A feed download request: the feed URL, HTTP cache validators and timeouts.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class FeedRequest {
+
+	/**
+	 * The feed URL
+	 */
+	private final String url;
+	/**
+	 * The ETag from the last download, or null
+	 */
+	private final String etag;
+	/**
+	 * The Last-Modified date from the last download, or null
+	 */
+	private final String lastModified;
+	/**
+	 * The connect timeout in milliseconds
+	 */
+	private final int connectTimeout;
+	/**
+	 * The read timeout in milliseconds
+	 */
+	private final int readTimeout;
+
+	/**
+	 * Constructs a FeedRequest
+	 *
+	 * @param url the feed URL
+	 * @param etag the ETag from the last download, or null
+	 * @param lastModified the Last-Modified date from the last download, or
+	 * null
+	 * @param connectTimeout the connect timeout in milliseconds
+	 * @param readTimeout the read timeout in milliseconds
+	 */
+	public FeedRequest(String url, String etag, String lastModified, int connectTimeout, int readTimeout) {
+		this.url = url;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * Returns the feed URL
+	 *
+	 * @return the feed URL
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Returns the ETag from the last download
+	 *
+	 * @return the ETag from the last download, or null
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * Returns the Last-Modified date from the last download
+	 *
+	 * @return the Last-Modified date from the last download, or null
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Returns the connect timeout in milliseconds
+	 *
+	 * @return the connect timeout in milliseconds
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * Returns the read timeout in milliseconds
+	 *
+	 * @return the read timeout in milliseconds
+	 */
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.fetcher;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * A feed download response. Provides the HTTP cache validators and a Reader
+ * for the decompressed and decoded feed document.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class FeedResponse implements Closeable {
+
+	/**
+	 * True if the server reported that the feed was not modified
+	 */
+	private final boolean notModified;
+	/**
+	 * The ETag header value, or null
+	 */
+	private final String etag;
+	/**
+	 * The Last-Modified header value, or null
+	 */
+	private final String lastModified;
+	/**
+	 * The Content-Type header value, or null
+	 */
+	private final String contentType;
+	/**
+	 * The Content-Encoding header value, or null
+	 */
+	private final String contentEncoding;
+	/**
+	 * The raw response stream, or null if the feed was not modified
+	 */
+	private final InputStream stream;
+
+	/**
+	 * Constructs a FeedResponse for a feed which was not modified
+	 */
+	public FeedResponse() {
+		this.notModified = true;
+		this.etag = null;
+		this.lastModified = null;
+		this.contentType = null;
+		this.contentEncoding = null;
+		this.stream = null;
+	}
+
+	/**
+	 * Constructs a FeedResponse for a downloaded feed
+	 *
+	 * @param etag the ETag header value, or null
+	 * @param lastModified the Last-Modified header value, or null
+	 * @param contentType the Content-Type header value, or null
+	 * @param contentEncoding the Content-Encoding header value, or null
+	 * @param stream the raw response stream
+	 */
+	public FeedResponse(String etag, String lastModified, String contentType, String contentEncoding, InputStream stream) {
+		this.notModified = false;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.contentType = contentType;
+		this.contentEncoding = contentEncoding;
+		this.stream = stream;
+	}
+
+	/**
+	 * Returns a Reader for the decompressed feed document
+	 *
+	 * @return the Reader for the decompressed feed document
+	 * @throws IOException if the response cannot be read
+	 */
+	public Reader getReader() throws IOException {
+		return FeedStreamDecoder.createReader(FeedStreamDecoder.decompress(stream, contentEncoding), contentType);
+	}
+
+	/**
+	 * Returns true if the server reported that the feed was not modified
+	 *
+	 * @return true if the server reported that the feed was not modified
+	 */
+	public boolean isNotModified() {
+		return notModified;
+	}
+
+	/**
+	 * Returns the ETag header value
+	 *
+	 * @return the ETag header value, or null
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * Returns the Last-Modified header value
+	 *
+	 * @return the Last-Modified header value, or null
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (stream != null)
+			stream.close();
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.fetcher;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Class for decoding downloaded feed streams: decompresses the transfer
+ * encoding and detects the character set without buffering the whole
+ * document.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class FeedStreamDecoder {
+
+	/**
+	 * The Accept-Encoding header value for compression methods supported by
+	 * this decoder
+	 */
+	public static final String ACCEPT_ENCODING = "gzip, deflate"; //NOI18N
+	/**
+	 * The maximum number of bytes to look ahead when detecting the XML prolog
+	 * encoding
+	 */
+	private static final int PROLOG_LOOKAHEAD = 1024;
+	/**
+	 * The default XML encoding
+	 */
+	private static final Charset DEFAULT_CHARSET = Charset.forName("utf-8"); //NOI18N
+	/**
+	 * Pattern for extracting the encoding attribute from the XML prolog
+	 */
+	private static final Pattern PROLOG_ENCODING = Pattern.compile("^<\\?xml[^>]*?encoding\\s*=\\s*[\"']([A-Za-z0-9._:-]+)[\"']"); //NOI18N
+
+	/**
+	 * Private constructor
+	 */
+	private FeedStreamDecoder() {
+	}
+
+	/**
+	 * Wraps a stream with a decompressing stream, based on the HTTP
+	 * Content-Encoding header.
+	 *
+	 * @param stream the raw stream
+	 * @param contentEncoding the Content-Encoding header value, or null
+	 * @return the decompressed stream
+	 * @throws IOException if the stream cannot be read
+	 */
+	public static InputStream decompress(InputStream stream, String contentEncoding) throws IOException {
+		if (contentEncoding == null)
+			return stream;
+		contentEncoding = contentEncoding.trim().toLowerCase();
+		if (contentEncoding.equals("gzip") || contentEncoding.equals("x-gzip")) //NOI18N
+			return new GZIPInputStream(stream);
+		if (contentEncoding.equals("deflate")) { //NOI18N
+			//Some servers send raw deflate data without the zlib header
+			BufferedInputStream bufferedStream = new BufferedInputStream(stream);
+			bufferedStream.mark(2);
+			int cmf = bufferedStream.read();
+			int flg = bufferedStream.read();
+			bufferedStream.reset();
+			boolean zlibHeader = cmf >= 0 && flg >= 0 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+			return new InflaterInputStream(bufferedStream, new Inflater(!zlibHeader));
+		}
+		return stream;
+	}
+
+	/**
+	 * Creates a Reader for an XML stream. The character set is taken from the
+	 * Content-Type header, the byte order mark or the XML prolog (in that
+	 * order), and defaults to UTF-8.
+	 *
+	 * @param stream the decompressed stream
+	 * @param contentType the Content-Type header value, or null
+	 * @return the Reader for the stream
+	 * @throws IOException if the stream cannot be read
+	 */
+	public static Reader createReader(InputStream stream, String contentType) throws IOException {
+		BufferedInputStream bufferedStream = new BufferedInputStream(stream);
+		bufferedStream.mark(PROLOG_LOOKAHEAD);
+		byte[] head = new byte[PROLOG_LOOKAHEAD];
+		int headLength = 0;
+		while (headLength < head.length) {
+			int read = bufferedStream.read(head, headLength, head.length - headLength);
+			if (read < 0)
+				break;
+			headLength += read;
+		}
+		bufferedStream.reset();
+
+		Charset charset = getContentTypeCharset(contentType);
+		int bomLength = 0;
+		if (headLength >= 3 && (head[0] & 0xff) == 0xef && (head[1] & 0xff) == 0xbb && (head[2] & 0xff) == 0xbf) {
+			bomLength = 3;
+			if (charset == null)
+				charset = Charset.forName("utf-8"); //NOI18N
+		} else if (headLength >= 2 && (((head[0] & 0xff) == 0xfe && (head[1] & 0xff) == 0xff) || ((head[0] & 0xff) == 0xff && (head[1] & 0xff) == 0xfe))) {
+			//The UTF-16 decoder consumes the byte order mark
+			if (charset == null)
+				charset = Charset.forName("utf-16"); //NOI18N
+		}
+		if (charset == null)
+			charset = getPrologCharset(new String(head, 0, headLength, Charset.forName("iso-8859-1"))); //NOI18N
+		if (charset == null)
+			charset = DEFAULT_CHARSET;
+
+		//The UTF-8 decoder doesn't skip the byte order mark
+		if (bomLength > 0 && charset.name().equalsIgnoreCase("utf-8")) //NOI18N
+			for (int skipped = 0; skipped < bomLength;)
+				skipped += bufferedStream.skip(bomLength - skipped);
+		return new InputStreamReader(bufferedStream, charset);
+	}
+
+	/**
+	 * Returns the charset from a Content-Type header.
+	 *
+	 * @param contentType the Content-Type header value, or null
+	 * @return the charset from the Content-Type header, or null if it's not
+	 * set or not supported
+	 */
+	private static Charset getContentTypeCharset(String contentType) {
+		if (contentType == null)
+			return null;
+		String[] contentTypeParts = contentType.split(";"); //NOI18N
+		for (String contentTypePart : contentTypeParts) {
+			String[] contentTypePartComponents = contentTypePart.trim().split("=", 2); //NOI18N
+			if (contentTypePartComponents.length == 2 && contentTypePartComponents[0].trim().equalsIgnoreCase("charset")) //NOI18N
+				return getCharset(contentTypePartComponents[1].trim().replaceAll("^[\"']|[\"']$", "")); //NOI18N
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the charset from an XML prolog.
+	 *
+	 * @param head the beginning of the XML document
+	 * @return the charset from the XML prolog, or null if it's not set or not
+	 * supported
+	 */
+	private static Charset getPrologCharset(String head) {
+		Matcher matcher = PROLOG_ENCODING.matcher(head);
+		return matcher.find() ? getCharset(matcher.group(1)) : null;
+	}
+
+	/**
+	 * Returns a charset by name.
+	 *
+	 * @param name the charset name
+	 * @return the charset, or null if it's not supported
+	 */
+	private static Charset getCharset(String name) {
+		try {
+			return Charset.isSupported(name) ? Charset.forName(name) : null;
+		} catch (IllegalArgumentException ex) {
+			return null;
+		}
+	}
+}
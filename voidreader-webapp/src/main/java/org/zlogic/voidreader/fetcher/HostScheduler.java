@@ -0,0 +1,342 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.fetcher;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fair politeness scheduler for feed downloads. Limits the total number of
+ * downloads in flight and the number of concurrent downloads per host.
+ * Downloads are grouped by tenant (user), and tenants take turns in a
+ * round-robin order, so that a user with many feeds doesn't delay other
+ * users; within a tenant, hosts are interleaved in a round-robin order so that
+ * a host with many feeds doesn't delay other hosts. Per-host limits are shared
+ * by all tenants. The limit of downloads in flight can be adaptive, following
+ * the latency of finished downloads.
+ *
+ * Tasks are started by the thread which submits a task or releases a slot,
+ * so they should only start asynchronous work and return immediately. Every
+ * started task must eventually call release for its host.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class HostScheduler {
+
+	/**
+	 * The limit of tasks in flight
+	 */
+	private final AdaptiveLimit inFlightLimit;
+	/**
+	 * The maximum number of tasks in flight per host
+	 */
+	private final int maxPerHost;
+	/**
+	 * Tenants with pending tasks
+	 */
+	private final Map<String, Tenant> tenants = new HashMap<>();
+	/**
+	 * Round-robin order of tenants with pending tasks
+	 */
+	private final Deque<Tenant> tenantOrder = new ArrayDeque<>();
+	/**
+	 * Tasks in flight for every host
+	 */
+	private final Map<String, Integer> activeTasks = new HashMap<>();
+	/**
+	 * The number of tasks in flight
+	 */
+	private int inFlight = 0;
+	/**
+	 * The number of pending tasks
+	 */
+	private int pending = 0;
+
+	/**
+	 * Pending tasks of a single tenant
+	 */
+	private class Tenant {
+
+		/**
+		 * The tenant name
+		 */
+		private final String name;
+		/**
+		 * Pending tasks for every host
+		 */
+		private final Map<String, Deque<Runnable>> pendingTasks = new HashMap<>();
+		/**
+		 * Round-robin order of hosts with pending tasks
+		 */
+		private final Deque<String> hostOrder = new ArrayDeque<>();
+
+		/**
+		 * Constructs a Tenant
+		 *
+		 * @param name the tenant name
+		 */
+		private Tenant(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Adds a pending task
+		 *
+		 * @param host the host key
+		 * @param task the task
+		 */
+		private void add(String host, Runnable task) {
+			Deque<Runnable> hostTasks = pendingTasks.get(host);
+			if (hostTasks == null) {
+				hostTasks = new ArrayDeque<>();
+				pendingTasks.put(host, hostTasks);
+				hostOrder.add(host);
+			}
+			hostTasks.add(task);
+		}
+
+		/**
+		 * Takes the next task of a host which is below the per-host limit,
+		 * taking hosts in a round-robin order, and counts it as active
+		 *
+		 * @return the task, or null if all hosts with pending tasks are at the
+		 * per-host limit
+		 */
+		private Runnable poll() {
+			for (int i = hostOrder.size(); i > 0; i--) {
+				String host = hostOrder.poll();
+				Integer hostActive = activeTasks.get(host);
+				hostActive = hostActive != null ? hostActive : 0;
+				if (hostActive >= maxPerHost) {
+					hostOrder.add(host);
+					continue;
+				}
+				Deque<Runnable> hostTasks = pendingTasks.get(host);
+				Runnable task = hostTasks.poll();
+				activeTasks.put(host, hostActive + 1);
+				if (hostTasks.isEmpty())
+					pendingTasks.remove(host);
+				else
+					hostOrder.add(host);
+				return task;
+			}
+			return null;
+		}
+
+		/**
+		 * Returns true if this tenant has no pending tasks
+		 *
+		 * @return true if this tenant has no pending tasks
+		 */
+		private boolean isEmpty() {
+			return hostOrder.isEmpty();
+		}
+	}
+
+	/**
+	 * Constructs a HostScheduler
+	 *
+	 * @param maxInFlight the maximum number of tasks in flight
+	 * @param maxPerHost the maximum number of tasks in flight per host
+	 */
+	public HostScheduler(int maxInFlight, int maxPerHost) {
+		this(new AdaptiveLimit(maxInFlight, maxInFlight), maxPerHost);
+	}
+
+	/**
+	 * Constructs a HostScheduler with an adaptive limit of tasks in flight.
+	 * The limit is updated with the latency of tasks which are released with
+	 * a sample.
+	 *
+	 * @param inFlightLimit the limit of tasks in flight
+	 * @param maxPerHost the maximum number of tasks in flight per host
+	 */
+	public HostScheduler(AdaptiveLimit inFlightLimit, int maxPerHost) {
+		this.inFlightLimit = inFlightLimit;
+		this.maxPerHost = Math.max(maxPerHost, 1);
+	}
+
+	/**
+	 * Returns the key used to group feeds by host. Subdomains of the same site
+	 * (e.g. blogs on a blogging platform) share the same key.
+	 *
+	 * @param url the feed URL
+	 * @return the host key for the URL
+	 */
+	public static String getHostKey(String url) {
+		String host;
+		try {
+			host = new URL(url).getHost().toLowerCase();
+		} catch (MalformedURLException ex) {
+			return ""; //NOI18N
+		}
+		if (host.matches("[0-9.]+|.*:.*")) //NOI18N
+			return host;
+		String[] labels = host.split("\\."); //NOI18N
+		int keyLabels = 2;
+		//Country-code second-level domains such as co.uk
+		if (labels.length > 2 && labels[labels.length - 1].length() == 2 && labels[labels.length - 2].length() <= 3)
+			keyLabels = 3;
+		if (labels.length <= keyLabels)
+			return host;
+		StringBuilder key = new StringBuilder();
+		for (int i = labels.length - keyLabels; i < labels.length; i++)
+			key.append(key.length() > 0 ? "." : "").append(labels[i]); //NOI18N
+		return key.toString();
+	}
+
+	/**
+	 * Submits a task for a tenant and host. The task is started immediately if
+	 * the limits allow it, or queued otherwise.
+	 *
+	 * @param tenant the tenant (user) name
+	 * @param host the host key
+	 * @param task the task to start
+	 */
+	public void submit(String tenant, String host, Runnable task) {
+		synchronized (this) {
+			Tenant tenantTasks = tenants.get(tenant);
+			if (tenantTasks == null) {
+				tenantTasks = new Tenant(tenant);
+				tenants.put(tenant, tenantTasks);
+				tenantOrder.add(tenantTasks);
+			}
+			tenantTasks.add(host, task);
+			pending++;
+		}
+		startTasks();
+	}
+
+	/**
+	 * Releases a slot taken by a finished task and starts pending tasks.
+	 *
+	 * @param host the host key of the finished task
+	 */
+	public void release(String host) {
+		synchronized (this) {
+			Integer hostActive = activeTasks.get(host);
+			if (hostActive == null || hostActive <= 1)
+				activeTasks.remove(host);
+			else
+				activeTasks.put(host, hostActive - 1);
+			inFlight--;
+			notifyAll();
+		}
+		startTasks();
+	}
+
+	/**
+	 * Releases a slot taken by a finished task, updates the adaptive limit
+	 * with the task's result and starts pending tasks.
+	 *
+	 * @param host the host key of the finished task
+	 * @param latency the task latency in milliseconds
+	 * @param failed true if the task failed
+	 */
+	public void release(String host, long latency, boolean failed) {
+		inFlightLimit.sample(latency, failed, getInFlight());
+		release(host);
+	}
+
+	/**
+	 * Waits until all submitted tasks have been started and released, or
+	 * until a deadline.
+	 *
+	 * @param deadline the time (in milliseconds since the epoch) after which
+	 * waiting should stop
+	 * @return true if all tasks have been released, false if the deadline
+	 * was reached
+	 * @throws InterruptedException if the thread was interrupted while
+	 * waiting
+	 */
+	public synchronized boolean awaitIdle(long deadline) throws InterruptedException {
+		while (inFlight > 0 || pending > 0) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0)
+				return false;
+			wait(remaining);
+		}
+		return true;
+	}
+
+	/**
+	 * Discards all pending tasks. Tasks in flight are not affected.
+	 *
+	 * @return the number of discarded tasks
+	 */
+	public synchronized int cancel() {
+		int cancelled = pending;
+		tenants.clear();
+		tenantOrder.clear();
+		pending = 0;
+		notifyAll();
+		return cancelled;
+	}
+
+	/**
+	 * Returns the number of tasks in flight
+	 *
+	 * @return the number of tasks in flight
+	 */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * Returns the current limit of tasks in flight
+	 *
+	 * @return the current limit of tasks in flight
+	 */
+	public int getLimit() {
+		return inFlightLimit.getLimit();
+	}
+
+	/**
+	 * Returns the number of pending tasks
+	 *
+	 * @return the number of pending tasks
+	 */
+	public synchronized int getPending() {
+		return pending;
+	}
+
+	/**
+	 * Starts as many pending tasks as the limits allow, taking tenants in a
+	 * round-robin order.
+	 */
+	private void startTasks() {
+		List<Runnable> startTasks = new ArrayList<>();
+		synchronized (this) {
+			int skippedTenants = 0;
+			int maxInFlight = inFlightLimit.getLimit();
+			while (inFlight < maxInFlight && !tenantOrder.isEmpty() && skippedTenants < tenantOrder.size()) {
+				Tenant tenant = tenantOrder.poll();
+				Runnable task = tenant.poll();
+				if (task == null) {
+					tenantOrder.add(tenant);
+					skippedTenants++;
+					continue;
+				}
+				skippedTenants = 0;
+				startTasks.add(task);
+				inFlight++;
+				pending--;
+				if (tenant.isEmpty())
+					tenants.remove(tenant.name);
+				else
+					tenantOrder.add(tenant);
+			}
+		}
+		for (Runnable task : startTasks)
+			task.run();
+	}
+}
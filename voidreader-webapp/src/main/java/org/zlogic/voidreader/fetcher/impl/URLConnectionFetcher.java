@@ -0,0 +1,83 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.fetcher.impl;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.zlogic.voidreader.fetcher.FeedFetcher;
+import org.zlogic.voidreader.fetcher.FeedRequest;
+import org.zlogic.voidreader.fetcher.FeedResponse;
+import org.zlogic.voidreader.fetcher.FeedStreamDecoder;
+
+/**
+ * FeedFetcher implementation which uses a blocking URLConnection. The download
+ * is performed in the thread which requests the result from the returned
+ * Future.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class URLConnectionFetcher implements FeedFetcher {
+
+	/**
+	 * FutureTask which runs the task in the calling thread when the result is
+	 * requested
+	 *
+	 * @param <V> the result type
+	 */
+	private static class DeferredTask<V> extends FutureTask<V> {
+
+		/**
+		 * Constructs a DeferredTask
+		 *
+		 * @param callable the task to run
+		 */
+		public DeferredTask(Callable<V> callable) {
+			super(callable);
+		}
+
+		@Override
+		public V get() throws InterruptedException, ExecutionException {
+			run();
+			return super.get();
+		}
+
+		@Override
+		public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			run();
+			return super.get(timeout, unit);
+		}
+	}
+
+	@Override
+	public Future<FeedResponse> fetch(final FeedRequest request) {
+		return new DeferredTask<>(new Callable<FeedResponse>() {
+
+			@Override
+			public FeedResponse call() throws Exception {
+				URLConnection connection = new URL(request.getUrl()).openConnection();
+				connection.setConnectTimeout(request.getConnectTimeout());
+				connection.setReadTimeout(request.getReadTimeout());
+				connection.setRequestProperty("Accept-Encoding", FeedStreamDecoder.ACCEPT_ENCODING); //NOI18N
+				if (request.getEtag() != null)
+					connection.setRequestProperty("If-None-Match", request.getEtag()); //NOI18N
+				if (request.getLastModified() != null)
+					connection.setRequestProperty("If-Modified-Since", request.getLastModified()); //NOI18N
+				connection.connect();
+				if (connection instanceof HttpURLConnection && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)
+					return new FeedResponse();
+				return new FeedResponse(connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"), //NOI18N
+						connection.getContentType(), connection.getContentEncoding(), connection.getInputStream());
+			}
+		});
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.fetcher.impl;
+
+import com.google.appengine.api.urlfetch.FetchOptions;
+import com.google.appengine.api.urlfetch.HTTPHeader;
+import com.google.appengine.api.urlfetch.HTTPMethod;
+import com.google.appengine.api.urlfetch.HTTPRequest;
+import com.google.appengine.api.urlfetch.HTTPResponse;
+import com.google.appengine.api.urlfetch.URLFetchService;
+import com.google.appengine.api.urlfetch.URLFetchServiceFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.text.MessageFormat;
+import java.util.ResourceBundle;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.zlogic.voidreader.fetcher.FeedFetcher;
+import org.zlogic.voidreader.fetcher.FeedRequest;
+import org.zlogic.voidreader.fetcher.FeedResponse;
+import org.zlogic.voidreader.fetcher.FeedStreamDecoder;
+
+/**
+ * FeedFetcher implementation which uses the asynchronous App Engine URL Fetch
+ * service. Requests don't occupy a thread while they're in flight, and
+ * connections are pooled and kept alive by the URL Fetch service.
+ *
+ * The URL Fetch service returns the whole response body at once, so closing
+ * the response stream early (e.g. when the streaming parser stops) doesn't
+ * save any download time or memory; use URLConnectionFetcher for that.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class URLFetchServiceFetcher implements FeedFetcher {
+
+	/**
+	 * Future which converts an HTTPResponse into a FeedResponse
+	 */
+	private static class ResponseFuture implements Future<FeedResponse> {
+
+		/**
+		 * The URL Fetch service Future
+		 */
+		private final Future<HTTPResponse> future;
+		/**
+		 * The requested URL
+		 */
+		private final URL url;
+
+		/**
+		 * Constructs a ResponseFuture
+		 *
+		 * @param future the URL Fetch service Future
+		 * @param url the requested URL
+		 */
+		public ResponseFuture(Future<HTTPResponse> future, URL url) {
+			this.future = future;
+			this.url = url;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return future.cancel(mayInterruptIfRunning);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return future.isCancelled();
+		}
+
+		@Override
+		public boolean isDone() {
+			return future.isDone();
+		}
+
+		@Override
+		public FeedResponse get() throws InterruptedException, ExecutionException {
+			return convert(future.get());
+		}
+
+		@Override
+		public FeedResponse get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			return convert(future.get(timeout, unit));
+		}
+
+		/**
+		 * Converts an HTTPResponse into a FeedResponse
+		 *
+		 * @param response the HTTPResponse
+		 * @return the FeedResponse
+		 * @throws ExecutionException if the server returned an error
+		 */
+		private FeedResponse convert(HTTPResponse response) throws ExecutionException {
+			if (response.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)
+				return new FeedResponse();
+			if (response.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST)
+				throw new ExecutionException(new IOException(MessageFormat.format(messages.getString("SERVER_RETURNED_HTTP_RESPONSE_CODE"), new Object[]{response.getResponseCode(), url})));
+			return new FeedResponse(getHeader(response, "ETag"), getHeader(response, "Last-Modified"), //NOI18N
+					getHeader(response, "Content-Type"), getHeader(response, "Content-Encoding"), //NOI18N
+					new ByteArrayInputStream(response.getContent() != null ? response.getContent() : new byte[0]));
+		}
+
+		/**
+		 * Returns the value of a response header
+		 *
+		 * @param response the HTTPResponse
+		 * @param name the header name
+		 * @return the header value, or null if the header is not present
+		 */
+		private String getHeader(HTTPResponse response, String name) {
+			for (HTTPHeader header : response.getHeadersUncombined())
+				if (header.getName().equalsIgnoreCase(name))
+					return header.getValue();
+			return null;
+		}
+	}
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/voidreader/messages");
+	/**
+	 * The URLFetchService instance
+	 */
+	private final URLFetchService urlFetchService = URLFetchServiceFactory.getURLFetchService();
+
+	@Override
+	public Future<FeedResponse> fetch(FeedRequest request) {
+		URL url;
+		try {
+			url = new URL(request.getUrl());
+		} catch (MalformedURLException ex) {
+			//Let the fallback engine report the error through its Future
+			return new URLConnectionFetcher().fetch(request);
+		}
+		double deadline = (request.getConnectTimeout() + request.getReadTimeout()) / 1000.0;
+		HTTPRequest httpRequest = new HTTPRequest(url, HTTPMethod.GET, FetchOptions.Builder.withDeadline(deadline).followRedirects());
+		httpRequest.addHeader(new HTTPHeader("Accept-Encoding", FeedStreamDecoder.ACCEPT_ENCODING)); //NOI18N
+		if (request.getEtag() != null)
+			httpRequest.addHeader(new HTTPHeader("If-None-Match", request.getEtag())); //NOI18N
+		if (request.getLastModified() != null)
+			httpRequest.addHeader(new HTTPHeader("If-Modified-Since", request.getLastModified())); //NOI18N
+		return new ResponseFuture(urlFetchService.fetchAsync(httpRequest), url);
+	}
+}
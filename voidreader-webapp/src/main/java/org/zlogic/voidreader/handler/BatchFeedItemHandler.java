@@ -0,0 +1,39 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.handler;
+
+import java.util.Collection;
+import org.zlogic.voidreader.feed.Feed;
+
+/**
+ * Interface for FeedItemHandlers which collect handled items and deliver them
+ * later in batches. Item states are only updated once their batch is
+ * delivered, so a feed should not be saved before it's returned by finishFeed
+ * or flush. Feeds whose items could not be delivered are never returned; they
+ * stay unfinished and are updated again by the next update.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public interface BatchFeedItemHandler extends FeedItemHandler {
+
+	/**
+	 * Notifies the handler that all new items of a feed were handled
+	 *
+	 * @param feed the feed
+	 * @return the feeds whose items were delivered and which should be saved
+	 * now
+	 */
+	public Collection<Feed> finishFeed(Feed feed);
+
+	/**
+	 * Delivers the items of all finished feeds. Items of feeds which were not
+	 * finished are discarded.
+	 *
+	 * @return the feeds whose items were delivered and which should be saved
+	 * now
+	 */
+	public Collection<Feed> flush();
+}
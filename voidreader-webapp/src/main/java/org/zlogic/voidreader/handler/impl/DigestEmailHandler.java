@@ -0,0 +1,463 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.handler.impl;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import javax.activation.DataHandler;
+import javax.mail.BodyPart;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
+import org.apache.commons.io.IOUtils;
+import org.jsoup.Jsoup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+import org.zlogic.voidreader.Settings;
+import org.zlogic.voidreader.feed.Feed;
+import org.zlogic.voidreader.feed.FeedItem;
+import org.zlogic.voidreader.handler.BatchFeedItemHandler;
+
+/**
+ * EmailHandler which collects new items into digest emails, either one digest
+ * for every feed or a single digest of all feeds at the end of the update. A
+ * digest has a table of contents, the contents of every item and the PDFs of
+ * its items as attachments; digests with too many items or attachments which
+ * are too large are split into several emails. A PDF which is too large for
+ * any digest is replaced with a link. A single digest of all feeds is sent in
+ * parts during the update once its attachments reach the size limit, so that
+ * not all PDFs are kept in memory until the end of the update.
+ *
+ * Item states are updated only after their digest is sent.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class DigestEmailHandler extends EmailHandler implements BatchFeedItemHandler {
+
+	/**
+	 * The logger
+	 */
+	private static final Logger log = LoggerFactory.getLogger(DigestEmailHandler.class);
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/voidreader/messages");
+	/**
+	 * The shared template group, created on first use
+	 */
+	private static volatile STGroup templates;
+	/**
+	 * True if a digest is sent for every feed, false if a single digest is
+	 * sent at the end of the update
+	 */
+	private final boolean digestPerFeed;
+	/**
+	 * Entries of feeds which still have items being handled
+	 */
+	private final Map<Feed, List<DigestEntry>> pendingEntries = new HashMap<>();
+	/**
+	 * Entries of finished feeds waiting for the digest to be sent
+	 */
+	private final Map<Feed, List<DigestEntry>> finishedEntries = new LinkedHashMap<>();
+	/**
+	 * The size of PDFs of finished entries, in bytes
+	 */
+	private long finishedBytes;
+
+	/**
+	 * An item in a digest. Keeps the rendered contents of the item, so that
+	 * the item's own contents can be released.
+	 */
+	public static class DigestEntry {
+
+		/**
+		 * The feed item
+		 */
+		private final FeedItem item;
+		/**
+		 * The feed title
+		 */
+		private final String feedTitle;
+		/**
+		 * The item text
+		 */
+		private final String text;
+		/**
+		 * The item HTML, without the document head
+		 */
+		private final String html;
+		/**
+		 * The item PDF, or null if there's no PDF
+		 */
+		private final byte[] pdf;
+		/**
+		 * True if the item PDF was too large and was replaced with a link
+		 */
+		private final boolean pdfTooLarge;
+		/**
+		 * The item state after the digest is sent
+		 */
+		private final FeedItem.State newState;
+		/**
+		 * The index of this entry in its digest
+		 */
+		private int index;
+
+		/**
+		 * Constructs a DigestEntry
+		 *
+		 * @param item the feed item
+		 * @param feedTitle the feed title
+		 * @param text the item text
+		 * @param html the item HTML, without the document head
+		 * @param pdf the item PDF, or null if there's no PDF
+		 * @param pdfTooLarge true if the item PDF was too large and was
+		 * replaced with a link
+		 * @param newState the item state after the digest is sent
+		 */
+		private DigestEntry(FeedItem item, String feedTitle, String text, String html, byte[] pdf, boolean pdfTooLarge, FeedItem.State newState) {
+			this.item = item;
+			this.feedTitle = feedTitle;
+			this.text = text;
+			this.html = html;
+			this.pdf = pdf;
+			this.pdfTooLarge = pdfTooLarge;
+			this.newState = newState;
+		}
+
+		/**
+		 * Returns the size of the item PDF
+		 *
+		 * @return the size of the item PDF in bytes, or 0 if there's no PDF
+		 */
+		private int getPdfSize() {
+			return pdf != null ? pdf.length : 0;
+		}
+
+		/**
+		 * Returns the item title
+		 *
+		 * @return the item title
+		 */
+		public String getTitle() {
+			return item.getTitle();
+		}
+
+		/**
+		 * Returns the item link
+		 *
+		 * @return the item link
+		 */
+		public String getLink() {
+			return item.getLink();
+		}
+
+		/**
+		 * Returns the feed title
+		 *
+		 * @return the feed title
+		 */
+		public String getFeedTitle() {
+			return feedTitle;
+		}
+
+		/**
+		 * Returns the item text
+		 *
+		 * @return the item text
+		 */
+		public String getText() {
+			return text;
+		}
+
+		/**
+		 * Returns the item HTML, without the document head
+		 *
+		 * @return the item HTML
+		 */
+		public String getHtml() {
+			return html;
+		}
+
+		/**
+		 * Returns the HTML anchor of this entry
+		 *
+		 * @return the HTML anchor of this entry
+		 */
+		public String getAnchor() {
+			return "item" + index; //NOI18N
+		}
+
+		/**
+		 * Returns the file name of the attached PDF
+		 *
+		 * @return the file name of the attached PDF, or null if there's no PDF
+		 */
+		public String getPdfName() {
+			return pdf != null ? "source-" + index + ".pdf" : null; //NOI18N
+		}
+
+		/**
+		 * Returns true if the item PDF was too large and was replaced with a
+		 * link
+		 *
+		 * @return true if the item PDF was replaced with a link
+		 */
+		public boolean isPdfTooLarge() {
+			return pdfTooLarge;
+		}
+	}
+
+	/**
+	 * Constructor for DigestEmailHandler
+	 *
+	 * @param settings the user settings
+	 */
+	public DigestEmailHandler(Settings settings) {
+		this(settings, "feed".equals(settings.getEmailDigest())); //NOI18N
+	}
+
+	/**
+	 * Constructor for DigestEmailHandler
+	 *
+	 * @param settings the user settings
+	 * @param digestPerFeed true if a digest should be sent for every feed,
+	 * false if a single digest should be sent at the end of the update
+	 */
+	public DigestEmailHandler(Settings settings, boolean digestPerFeed) {
+		super(settings);
+		this.digestPerFeed = digestPerFeed;
+	}
+
+	/**
+	 * Returns the shared template group, loading it on first use. The group is
+	 * not modified after it's created and can be used by multiple threads.
+	 *
+	 * @return the shared template group
+	 * @throws IOException if the templates cannot be read
+	 */
+	private static STGroup getTemplates() throws IOException {
+		STGroup group = templates;
+		if (group != null)
+			return group;
+		synchronized (DigestEmailHandler.class) {
+			if (templates == null) {
+				group = new STGroup('$', '$');
+				group.defineTemplate("DigestText", "entries", IOUtils.toString(DigestEmailHandler.class.getResourceAsStream("templates/Digest.txt"), "utf-8")); //NOI18N
+				group.defineTemplate("DigestHtml", "entries", IOUtils.toString(DigestEmailHandler.class.getResourceAsStream("templates/Digest.html"), "utf-8")); //NOI18N
+				templates = group;
+			}
+			return templates;
+		}
+	}
+
+	@Override
+	public void handle(Feed feed, FeedItem item) {
+		FeedItem.State newState = item.getState();
+		byte[] pdf = null;
+		if (item.getState() != FeedItem.State.SENT_PDF && settings.isEnablePdf()) {
+			try {
+				pdf = createPdf(item);
+				newState = FeedItem.State.SENT_PDF;
+			} catch (Exception ex) {
+				log.error(messages.getString("CANNOT_GENERATE_PDF"), ex);
+			}
+		}
+		boolean pdfFailedAgain = newState == FeedItem.State.SENT_ENTRY && item.getState() == FeedItem.State.SENT_ENTRY;
+		if (pdfFailedAgain)
+			return;
+		if (newState != FeedItem.State.SENT_PDF)
+			newState = FeedItem.State.SENT_ENTRY;
+		boolean pdfTooLarge = pdf != null && pdf.length > settings.getMailDigestMaxBytes();
+		if (pdfTooLarge) {
+			//Keep the SENT_PDF state, so that the PDF isn't generated again
+			log.warn(MessageFormat.format(messages.getString("PDF_TOO_LARGE_FOR_DIGEST"), new Object[]{item.getLink(), pdf.length}));
+			pdf = null;
+		}
+		String html = item.getItemHtml() != null ? Jsoup.parse(item.getItemHtml()).body().html() : ""; //NOI18N
+		DigestEntry entry = new DigestEntry(item, feed.getTitle(), item.getItemText(), html, pdf, pdfTooLarge, newState);
+		synchronized (this) {
+			List<DigestEntry> entries = pendingEntries.get(feed);
+			if (entries == null) {
+				entries = new ArrayList<>();
+				pendingEntries.put(feed, entries);
+			}
+			entries.add(entry);
+		}
+	}
+
+	@Override
+	public Collection<Feed> finishFeed(Feed feed) {
+		List<DigestEntry> entries;
+		synchronized (this) {
+			entries = pendingEntries.remove(feed);
+			if (entries != null && !digestPerFeed) {
+				finishedEntries.put(feed, entries);
+				for (DigestEntry entry : entries)
+					finishedBytes += entry.getPdfSize();
+				if (finishedBytes < settings.getMailDigestMaxBytes())
+					return Collections.emptyList();
+			}
+		}
+		if (entries != null && !digestPerFeed)
+			return sendFinished();
+		if (entries != null && !send(entries, feed.getTitle(), MessageFormat.format(messages.getString("DIGEST_SUBJECT_FEED"), new Object[]{feed.getTitle(), entries.size()})).isEmpty())
+			return Collections.emptyList();
+		return Collections.singletonList(feed);
+	}
+
+	@Override
+	public Collection<Feed> flush() {
+		synchronized (this) {
+			pendingEntries.clear();
+		}
+		return sendFinished();
+	}
+
+	/**
+	 * Sends the entries of all finished feeds as a single digest
+	 *
+	 * @return the feeds whose entries were all sent
+	 */
+	private Collection<Feed> sendFinished() {
+		Map<Feed, List<DigestEntry>> feeds;
+		synchronized (this) {
+			feeds = new LinkedHashMap<>(finishedEntries);
+			finishedEntries.clear();
+			finishedBytes = 0;
+		}
+		List<DigestEntry> entries = new ArrayList<>();
+		for (List<DigestEntry> feedEntries : feeds.values())
+			entries.addAll(feedEntries);
+		if (entries.isEmpty())
+			return new ArrayList<>(feeds.keySet());
+		Set<DigestEntry> failedEntries = send(entries, messages.getString("DIGEST_SENDER"), MessageFormat.format(messages.getString("DIGEST_SUBJECT_USER"), new Object[]{entries.size(), feeds.size()}));
+		List<Feed> sentFeeds = new ArrayList<>(feeds.size());
+		for (Map.Entry<Feed, List<DigestEntry>> feedEntries : feeds.entrySet())
+			if (Collections.disjoint(feedEntries.getValue(), failedEntries))
+				sentFeeds.add(feedEntries.getKey());
+		return sentFeeds;
+	}
+
+	/**
+	 * Sends entries as digest emails, and updates the states of items which
+	 * were sent. Every email contains at most email.digest_max_items entries
+	 * and email.digest_max_bytes of attachments. Errors are logged; items
+	 * which were not sent keep their state, and their feeds should not be
+	 * saved, so that they stay unfinished and are handled again by the next
+	 * update.
+	 *
+	 * @param entries the entries to send
+	 * @param senderName the sender name
+	 * @param subject the email subject
+	 * @return the entries which were not sent
+	 */
+	private Set<DigestEntry> send(List<DigestEntry> entries, String senderName, String subject) {
+		Set<DigestEntry> failedEntries = new HashSet<>();
+		int maxItems = Math.max(settings.getMailDigestMaxItems(), 1);
+		long maxBytes = settings.getMailDigestMaxBytes();
+		for (int i = 0; i < entries.size();) {
+			int end = i + 1;
+			long bytes = entries.get(i).getPdfSize();
+			while (end < entries.size() && end - i < maxItems && bytes + entries.get(end).getPdfSize() <= maxBytes)
+				bytes += entries.get(end++).getPdfSize();
+			List<DigestEntry> digestEntries = entries.subList(i, end);
+			i = end;
+			try {
+				mailTransport.send(createMessage(digestEntries, senderName, subject));
+				for (DigestEntry entry : digestEntries)
+					entry.item.setState(entry.newState);
+			} catch (MessagingException | IOException ex) {
+				log.error(MessageFormat.format(messages.getString("CANNOT_SEND_DIGEST"), new Object[]{digestEntries.size()}), ex);
+				failedEntries.addAll(digestEntries);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				log.error(MessageFormat.format(messages.getString("CANNOT_SEND_DIGEST"), new Object[]{digestEntries.size()}), ex);
+				failedEntries.addAll(entries.subList(i - digestEntries.size(), entries.size()));
+				return failedEntries;
+			}
+		}
+		return failedEntries;
+	}
+
+	/**
+	 * Creates a digest email
+	 *
+	 * @param entries the entries of the digest
+	 * @param senderName the sender name
+	 * @param subject the email subject
+	 * @return the digest email
+	 * @throws MessagingException if the email cannot be created
+	 * @throws UnsupportedEncodingException if the sender name cannot be
+	 * encoded
+	 * @throws IOException if the templates cannot be read
+	 */
+	private Message createMessage(List<DigestEntry> entries, String senderName, String subject) throws MessagingException, UnsupportedEncodingException, IOException {
+		for (int i = 0; i < entries.size(); i++)
+			entries.get(i).index = i + 1;
+
+		MimeMessage message = new MimeMessage(mailSession);
+
+		InternetAddress mailFrom = settings.getMailFrom();
+		mailFrom.setPersonal(senderName.replaceAll("[\r\n]+", ""), "utf-8");//TODO: make encoding configurable //NOI18N
+		message.setFrom(mailFrom);
+
+		message.addRecipient(Message.RecipientType.TO, settings.getMailTo());
+		message.setSubject(subject.replaceAll("[\r\n]+", "")); //NOI18N
+
+		Multipart multipart = new MimeMultipart();
+
+		MimeMultipart bodyAlternatives = new MimeMultipart("alternative"); //NOI18N
+
+		ST textTemplate = getTemplates().getInstanceOf("DigestText"); //NOI18N
+		textTemplate.add("entries", entries); //NOI18N
+		BodyPart messageTextPart = new MimeBodyPart();
+		messageTextPart.setContent(textTemplate.render(), "text/plain; charset=\"utf-8\"");//TODO: make encoding configurable  //NOI18N
+		messageTextPart.setHeader("Content-Transfer-Encoding", "quoted-printable"); //NOI18N
+		bodyAlternatives.addBodyPart(messageTextPart);
+
+		ST htmlTemplate = getTemplates().getInstanceOf("DigestHtml"); //NOI18N
+		htmlTemplate.add("entries", entries); //NOI18N
+		BodyPart messageHtmlBodyPart = new MimeBodyPart();
+		messageHtmlBodyPart.setContent(htmlTemplate.render(), "text/html; charset=\"utf-8\"");//TODO: make encoding configurable //NOI18N
+		messageHtmlBodyPart.setHeader("Content-Transfer-Encoding", "quoted-printable"); //NOI18N
+		bodyAlternatives.addBodyPart(messageHtmlBodyPart);
+
+		MimeBodyPart body = new MimeBodyPart();
+		body.setContent(bodyAlternatives);
+		multipart.addBodyPart(body);
+
+		for (DigestEntry entry : entries) {
+			if (entry.pdf == null)
+				continue;
+			BodyPart pdfBodyPart = new MimeBodyPart();
+			pdfBodyPart.setDisposition(MimeBodyPart.ATTACHMENT);
+			pdfBodyPart.setFileName(entry.getPdfName());
+			pdfBodyPart.setDataHandler(new DataHandler(new ByteArrayDataSource(entry.pdf, "application/pdf"))); //NOI18N
+			multipart.addBodyPart(pdfBodyPart);
+		}
+		message.setContent(multipart);
+		return message;
+	}
+}
@@ -16,7 +16,6 @@ import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.Multipart;
 import javax.mail.Session;
-import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
@@ -32,7 +31,8 @@ import org.zlogic.voidreader.handler.FeedItemHandler;
 
 /**
  * FeedItemHandler and ErrorHandler implementation which sends an email for
- * every new feed item.
+ * every new feed item. Messages are sent through a TransportPool shared by
+ * all EmailHandlers of the mail session, so that connections are reused.
  *
  * @author Dmitry Zolotukhin [zlogic@gmail.com]
  */
@@ -46,14 +46,25 @@ public class EmailHandler extends AbstractPdfHandler implements ErrorHandler, Fe
 	 * Localization messages
 	 */
 	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/voidreader/messages");
+	/**
+	 * The pool of mail connections, created with the first EmailHandler. All
+	 * handlers use the default mail session, and email.connections is an
+	 * application-wide setting, so the pool is shared by all users and the
+	 * connection limit is only read once.
+	 */
+	private static TransportPool transportPool;
 	/**
 	 * The user settings
 	 */
-	private final Settings settings;
+	protected final Settings settings;
 	/**
 	 * The current email session
 	 */
-	private final Session mailSession;
+	protected final Session mailSession;
+	/**
+	 * The pool of mail connections of the mail session
+	 */
+	protected final TransportPool mailTransport;
 
 	/**
 	 * Constructor for EmailHandler
@@ -63,6 +74,30 @@ public class EmailHandler extends AbstractPdfHandler implements ErrorHandler, Fe
 	public EmailHandler(Settings settings) {
 		this.settings = settings;
 		mailSession = Session.getDefaultInstance(new Properties(), null);
+		mailTransport = getTransportPool(mailSession, settings.getMailConnections());
+	}
+
+	/**
+	 * Returns the pool of mail connections, creating it if necessary
+	 *
+	 * @param mailSession the mail session
+	 * @param maxConnections the maximum number of parallel connections
+	 * @return the pool of mail connections
+	 */
+	private static synchronized TransportPool getTransportPool(Session mailSession, int maxConnections) {
+		if (transportPool == null)
+			transportPool = new TransportPool(mailSession, maxConnections);
+		return transportPool;
+	}
+
+	/**
+	 * Closes the idle connections of the shared pool of mail connections.
+	 * Should be called once an update finishes, so that connections are not
+	 * left open between updates; the pool reconnects when it's used again.
+	 */
+	public static synchronized void closeTransportPool() {
+		if (transportPool != null)
+			transportPool.close();
 	}
 
 	@Override
@@ -121,12 +156,15 @@ public class EmailHandler extends AbstractPdfHandler implements ErrorHandler, Fe
 				message.setSentDate(item.getPublishedDate());
 			boolean pdfFailedAgain = newState == FeedItem.State.SENT_ENTRY && item.getState() == FeedItem.State.SENT_ENTRY;
 			if (!pdfFailedAgain)
-				Transport.send(message);
+				mailTransport.send(message);
 			if (newState != FeedItem.State.SENT_PDF)
 				newState = FeedItem.State.SENT_ENTRY;
 			item.setState(newState);
 		} catch (MessagingException | UnsupportedEncodingException ex) {
 			throw new RuntimeException(MessageFormat.format(messages.getString("CANNOT_SEND_OR_PREPARE_EMAIL_MESSAGE_FOR_ITEM"), new Object[]{item.getLink()}), ex);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(MessageFormat.format(messages.getString("CANNOT_SEND_OR_PREPARE_EMAIL_MESSAGE_FOR_ITEM"), new Object[]{item.getLink()}), ex);
 		}
 	}
 
@@ -137,7 +175,7 @@ public class EmailHandler extends AbstractPdfHandler implements ErrorHandler, Fe
 	 * @throws Exception if PDF download or rendering failed
 	 * @return the PDF as a byte array
 	 */
-	private byte[] createPdf(FeedItem item) throws Exception {
+	protected byte[] createPdf(FeedItem item) throws Exception {
 		return downloadRenderPdf(new URL(item.getLink()));
 	}
 }
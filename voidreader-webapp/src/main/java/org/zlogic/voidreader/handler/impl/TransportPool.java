@@ -0,0 +1,127 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.handler.impl;
+
+import java.util.ResourceBundle;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of mail Transport connections of a Session. Connections are kept open
+ * and reused for all messages, so that every message doesn't need a new
+ * connection, handshake and authentication. The number of parallel
+ * connections is limited; senders wait for a free connection.
+ *
+ * A connection which was closed by the server or failed while sending is
+ * closed and reconnected, and the message is sent again once.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class TransportPool {
+
+	/**
+	 * The logger
+	 */
+	private static final Logger log = LoggerFactory.getLogger(TransportPool.class);
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/voidreader/messages");
+	/**
+	 * The number of attempts to send a message
+	 */
+	private static final int SEND_ATTEMPTS = 2;
+	/**
+	 * The mail session
+	 */
+	private final Session session;
+	/**
+	 * Permits for connections in use
+	 */
+	private final Semaphore connections;
+	/**
+	 * Connections which are not in use, most recently used first
+	 */
+	private final LinkedBlockingDeque<Transport> idleTransports = new LinkedBlockingDeque<>();
+
+	/**
+	 * Constructs a TransportPool
+	 *
+	 * @param session the mail session
+	 * @param maxConnections the maximum number of parallel connections
+	 */
+	public TransportPool(Session session, int maxConnections) {
+		this.session = session;
+		this.connections = new Semaphore(Math.max(maxConnections, 1));
+	}
+
+	/**
+	 * Sends a message through a pooled connection, waiting until a connection
+	 * is available
+	 *
+	 * @param message the message to send
+	 * @throws MessagingException if the message cannot be sent
+	 * @throws InterruptedException if the thread was interrupted while
+	 * waiting for a connection
+	 */
+	public void send(Message message) throws MessagingException, InterruptedException {
+		message.saveChanges();
+		connections.acquire();
+		try {
+			Transport transport = idleTransports.pollFirst();
+			for (int attempt = 1;; attempt++) {
+				try {
+					if (transport == null)
+						transport = session.getTransport();
+					if (!transport.isConnected())
+						transport.connect();
+					transport.sendMessage(message, message.getAllRecipients());
+					idleTransports.offerFirst(transport);
+					return;
+				} catch (MessagingException ex) {
+					close(transport);
+					transport = null;
+					if (attempt >= SEND_ATTEMPTS || ex instanceof SendFailedException)
+						throw ex;
+					log.warn(messages.getString("MAIL_CONNECTION_FAILED_RECONNECTING"), ex);
+				}
+			}
+		} finally {
+			connections.release();
+		}
+	}
+
+	/**
+	 * Closes all connections which are not in use
+	 */
+	public void close() {
+		Transport transport;
+		while ((transport = idleTransports.pollFirst()) != null)
+			close(transport);
+	}
+
+	/**
+	 * Closes a connection, logging any errors
+	 *
+	 * @param transport the connection to close, or null
+	 */
+	private void close(Transport transport) {
+		if (transport == null)
+			return;
+		try {
+			transport.close();
+		} catch (MessagingException ex) {
+			log.warn(messages.getString("CANNOT_CLOSE_MAIL_CONNECTION"), ex);
+		}
+	}
+}
@@ -0,0 +1,29 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.queue;
+
+/**
+ * Interface for queues which distribute update work units to workers.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public interface WorkQueue {
+
+	/**
+	 * Adds a work unit to the queue. Depending on the implementation, the
+	 * unit is sent to the queue immediately or when the queue is flushed.
+	 *
+	 * @param unit the work unit
+	 */
+	public void add(WorkUnit unit);
+
+	/**
+	 * Sends all added work units to the queue. Depending on the
+	 * implementation, the units are processed asynchronously by workers or
+	 * before this method returns.
+	 */
+	public void flush();
+}
@@ -0,0 +1,70 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.queue;
+
+import com.google.appengine.api.datastore.Key;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A unit of update work: a batch of feeds of a single user.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class WorkUnit {
+
+	/**
+	 * The request parameter with the username
+	 */
+	public static final String USER_PARAMETER = "user"; //NOI18N
+	/**
+	 * The request parameter with a feed key (repeated for every feed)
+	 */
+	public static final String FEED_PARAMETER = "feed"; //NOI18N
+	/**
+	 * The username
+	 */
+	private final String username;
+	/**
+	 * The keys of feeds which should be updated
+	 */
+	private final List<Key> feedKeys;
+
+	/**
+	 * Constructs a WorkUnit
+	 *
+	 * @param username the username
+	 * @param feedKeys the keys of feeds which should be updated
+	 */
+	public WorkUnit(String username, List<Key> feedKeys) {
+		this.username = username;
+		this.feedKeys = Collections.unmodifiableList(new ArrayList<>(feedKeys));
+	}
+
+	/**
+	 * Returns the username
+	 *
+	 * @return the username
+	 */
+	public String getUsername() {
+		return username;
+	}
+
+	/**
+	 * Returns the keys of feeds which should be updated
+	 *
+	 * @return the keys of feeds which should be updated
+	 */
+	public List<Key> getFeedKeys() {
+		return feedKeys;
+	}
+
+	@Override
+	public String toString() {
+		return username + ": " + feedKeys.size(); //NOI18N
+	}
+}
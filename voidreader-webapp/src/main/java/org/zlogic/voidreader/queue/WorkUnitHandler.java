@@ -0,0 +1,22 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.queue;
+
+/**
+ * Interface for workers which process update work units.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public interface WorkUnitHandler {
+
+	/**
+	 * Processes a work unit. Throws an exception if the unit should be
+	 * retried.
+	 *
+	 * @param unit the work unit
+	 */
+	public void handle(WorkUnit unit);
+}
@@ -0,0 +1,80 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.queue.impl;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ResourceBundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zlogic.voidreader.queue.WorkQueue;
+import org.zlogic.voidreader.queue.WorkUnit;
+import org.zlogic.voidreader.queue.WorkUnitHandler;
+
+/**
+ * In-process WorkQueue for the development server and tests. Work units are
+ * collected and processed in the flushing thread, one after another; a unit
+ * which fails is retried a limited number of times.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class LocalWorkQueue implements WorkQueue {
+
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/voidreader/messages");
+	/**
+	 * The logger
+	 */
+	private static final Logger log = LoggerFactory.getLogger(LocalWorkQueue.class);
+	/**
+	 * The handler which processes work units
+	 */
+	private final WorkUnitHandler handler;
+	/**
+	 * The maximum number of attempts to process a unit
+	 */
+	private final int maxAttempts;
+	/**
+	 * Work units which were not processed yet
+	 */
+	private final List<WorkUnit> pendingUnits = new ArrayList<>();
+
+	/**
+	 * Constructs a LocalWorkQueue
+	 *
+	 * @param handler the handler which processes work units
+	 * @param maxAttempts the maximum number of attempts to process a unit
+	 */
+	public LocalWorkQueue(WorkUnitHandler handler, int maxAttempts) {
+		this.handler = handler;
+		this.maxAttempts = Math.max(maxAttempts, 1);
+	}
+
+	@Override
+	public synchronized void add(WorkUnit unit) {
+		pendingUnits.add(unit);
+	}
+
+	@Override
+	public void flush() {
+		List<WorkUnit> units;
+		synchronized (this) {
+			units = new ArrayList<>(pendingUnits);
+			pendingUnits.clear();
+		}
+		for (WorkUnit unit : units)
+			for (int attempt = 1; attempt <= maxAttempts; attempt++)
+				try {
+					handler.handle(unit);
+					break;
+				} catch (RuntimeException ex) {
+					log.error(MessageFormat.format(messages.getString("CANNOT_PROCESS_WORK_UNIT"), new Object[]{unit, attempt, maxAttempts}), ex);
+				}
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.queue.impl;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import java.util.ArrayList;
+import java.util.List;
+import org.zlogic.voidreader.queue.WorkQueue;
+import org.zlogic.voidreader.queue.WorkUnit;
+
+/**
+ * WorkQueue which sends work units to an App Engine push queue. Every unit
+ * becomes a task which is sent to the worker servlet and retried by the queue
+ * if it fails.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class TaskQueueWorkQueue implements WorkQueue {
+
+	/**
+	 * The name of the push queue (configured in queue.xml)
+	 */
+	private static final String QUEUE_NAME = "feed-update"; //NOI18N
+	/**
+	 * The URL of the worker servlet
+	 */
+	private static final String WORKER_URL = "/admin/worker"; //NOI18N
+	/**
+	 * The maximum number of tasks which can be added in a single call
+	 */
+	private static final int MAX_TASKS_PER_ADD = 100;
+	/**
+	 * Tasks which were not added to the queue yet
+	 */
+	private final List<TaskOptions> pendingTasks = new ArrayList<>();
+
+	@Override
+	public synchronized void add(WorkUnit unit) {
+		TaskOptions task = TaskOptions.Builder.withUrl(WORKER_URL).method(TaskOptions.Method.POST);
+		task.param(WorkUnit.USER_PARAMETER, unit.getUsername());
+		for (Key key : unit.getFeedKeys())
+			task.param(WorkUnit.FEED_PARAMETER, KeyFactory.keyToString(key));
+		pendingTasks.add(task);
+		if (pendingTasks.size() >= MAX_TASKS_PER_ADD)
+			flush();
+	}
+
+	@Override
+	public synchronized void flush() {
+		if (pendingTasks.isEmpty())
+			return;
+		Queue queue = QueueFactory.getQueue(QUEUE_NAME);
+		queue.add(new ArrayList<>(pendingTasks));
+		pendingTasks.clear();
+	}
+}
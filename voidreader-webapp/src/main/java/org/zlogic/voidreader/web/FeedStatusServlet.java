@@ -0,0 +1,59 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.web;
+
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.ResourceBundle;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.zlogic.voidreader.Settings;
+import org.zlogic.voidreader.feed.Feed;
+
+/**
+ * Servlet for reporting feeds which repeatedly fail to update.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class FeedStatusServlet extends HttpServlet {
+
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/voidreader/messages");
+
+	/**
+	 * Serves an HTTP GET request.
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @throws ServletException if processing the response failed
+	 * @throws IOException if unable to read the request or write the response
+	 */
+	@Override
+	public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response.setCharacterEncoding("utf-8"); //NOI18N
+		response.setContentType("text/plain; charset=UTF-8"); //NOI18N
+		request.setCharacterEncoding("utf-8"); //NOI18N
+		try {
+			Settings settings = Settings.load(request.getUserPrincipal().getName());
+			List<Feed> feeds = Feed.loadFailing(settings);
+			StringBuilder report = new StringBuilder();
+			report.append(MessageFormat.format(messages.getString("FAILING_FEEDS_HEADER"), feeds.size()));
+			for (Feed feed : feeds)
+				report.append(MessageFormat.format(messages.getString("FAILING_FEED_FORMAT"), feed.getUrl(), feed.getFailureCount(), feed.getBackoffUntil(), feed.getLastError()));
+			response.getOutputStream().write(report.toString().getBytes(Charset.forName("utf-8"))); //NOI18N
+		} catch (EntityNotFoundException ex) {
+			throw new ServletException(messages.getString("YOU_NEED_TO_CONFIGURE_VOID_READER_FIRST"));
+		}
+	}
+
+}
@@ -7,7 +7,6 @@ package org.zlogic.voidreader.web;
 
 import com.google.appengine.api.datastore.EntityNotFoundException;
 import java.io.IOException;
-import java.util.List;
 import java.util.ResourceBundle;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -39,9 +38,7 @@ public class UpdateServlet extends HttpServlet {
 	@Override
 	public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		if ("true".equalsIgnoreCase(request.getHeader("X-Appengine-Cron"))) { //NOI18N
-			List<Settings> settingsList = Settings.loadAll();
-			for (Settings settings : settingsList)
-				new FeedDownloader().downloadFeeds(settings, false);
+			new FeedDownloader().downloadFeeds(Settings.loadAll());
 		} else {
 			boolean dummyHandler = request.getParameter("dummy") != null; //NOI18N
 			try {
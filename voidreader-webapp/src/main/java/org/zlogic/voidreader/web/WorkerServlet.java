@@ -0,0 +1,58 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.web;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ResourceBundle;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.zlogic.voidreader.FeedDownloader;
+import org.zlogic.voidreader.queue.WorkUnit;
+
+/**
+ * Servlet for processing update work units sent by the task queue. Returns an
+ * error if the unit should be retried.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class WorkerServlet extends HttpServlet {
+
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/voidreader/messages");
+
+	/**
+	 * Serves an HTTP POST request.
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @throws ServletException if processing the response failed
+	 * @throws IOException if unable to read the request or write the response
+	 */
+	@Override
+	public void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		String username = request.getParameter(WorkUnit.USER_PARAMETER);
+		if (username == null)
+			throw new ServletException(messages.getString("WORK_UNIT_MISSING_USER"));
+		List<Key> feedKeys = new ArrayList<>();
+		String[] feedParameters = request.getParameterValues(WorkUnit.FEED_PARAMETER);
+		if (feedParameters != null)
+			for (String feedParameter : feedParameters)
+				feedKeys.add(KeyFactory.stringToKey(feedParameter));
+		new FeedDownloader().processWorkUnit(new WorkUnit(username, feedKeys));
+		response.setCharacterEncoding("utf-8"); //NOI18N
+		response.setContentType("text/plain; charset=UTF-8"); //NOI18N
+		response.getOutputStream().print(messages.getString("OK"));
+	}
+
+}
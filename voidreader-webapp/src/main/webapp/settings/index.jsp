@@ -20,6 +20,13 @@
 			<p>
 				PDF enable: <input type="checkbox" name="pdf.enable" ${settings.settings.enablePdf?"checked":""}>
 			</p>
+			<p>
+				Email digest: <select name="email.digest">
+					<option value="none" ${settings.settings.emailDigest=="none"?"selected":""}>Email for every item</option>
+					<option value="feed" ${settings.settings.emailDigest=="feed"?"selected":""}>Digest for every feed</option>
+					<option value="user" ${settings.settings.emailDigest=="user"?"selected":""}>Single digest of all feeds</option>
+				</select>
+			</p>
 			<p>
 				Feed connect timeout milliseconds: <input type="number" name="feed.connect_timeout" value="${settings.settings.feedConnectTimeout}">
 			</p>
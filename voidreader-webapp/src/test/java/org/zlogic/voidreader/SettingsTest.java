@@ -0,0 +1,53 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader;
+
+import java.util.Properties;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Tests for Settings validation.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class SettingsTest {
+
+	/**
+	 * Creates Settings with an email digest mode
+	 *
+	 * @param emailDigest the email digest mode, or null if it's not set
+	 * @return the Settings
+	 */
+	private Settings createSettings(String emailDigest) {
+		Properties properties = new Properties();
+		properties.setProperty("email.to", "user@example.com"); //NOI18N
+		if (emailDigest != null)
+			properties.setProperty("email.digest", emailDigest); //NOI18N
+		return new Settings("user", properties); //NOI18N
+	}
+
+	/**
+	 * Tests that supported email digest modes are kept.
+	 */
+	@Test
+	public void testSupportedEmailDigest() {
+		assertEquals("none", createSettings(null).getEmailDigest()); //NOI18N
+		assertEquals("none", createSettings("none").getEmailDigest()); //NOI18N
+		assertEquals("feed", createSettings("feed").getEmailDigest()); //NOI18N
+		assertEquals("user", createSettings("user").getEmailDigest()); //NOI18N
+	}
+
+	/**
+	 * Tests that unsupported email digest modes fall back to "none".
+	 */
+	@Test
+	public void testUnsupportedEmailDigest() {
+		assertEquals("none", createSettings("weekly").getEmailDigest()); //NOI18N
+		assertEquals("none", createSettings("").getEmailDigest()); //NOI18N
+		assertEquals("none", createSettings("Feed").getEmailDigest()); //NOI18N
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.feed;
+
+import com.rometools.rome.feed.synd.SyndContent;
+import com.rometools.rome.feed.synd.SyndContentImpl;
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.feed.synd.SyndEntryImpl;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+
+/**
+ * Benchmark for rendering a single feed entry, comparing templates which are
+ * loaded and compiled for every entry with the shared precompiled templates.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FeedItemRenderBenchmark {
+
+	/**
+	 * The feed
+	 */
+	private Feed feed;
+	/**
+	 * The entry to render
+	 */
+	private SyndEntry entry;
+
+	/**
+	 * Creates the feed and entry.
+	 */
+	@Setup
+	public void setUp() {
+		feed = new Feed("http://example.com/feed", Arrays.asList("Example", "Feed"), null); //NOI18N
+		entry = new SyndEntryImpl();
+		entry.setTitle("Entry title"); //NOI18N
+		entry.setLink("http://example.com/entry"); //NOI18N
+		entry.setPublishedDate(new Date());
+		SyndContent description = new SyndContentImpl();
+		description.setValue("<p>Entry description with <a href=\"http://example.com\">a link</a></p>"); //NOI18N
+		entry.setDescription(description);
+	}
+
+	/**
+	 * Loads, compiles and renders the templates for an entry, as was done
+	 * before templates were shared.
+	 *
+	 * @return the rendered text and HTML
+	 * @throws IOException if the templates cannot be read
+	 */
+	@Benchmark
+	public String[] compileAndRender() throws IOException {
+		ST textTemplate = new ST(IOUtils.toString(FeedItem.class.getResourceAsStream("templates/FeedItem.txt")), '$', '$'); //NOI18N
+		textTemplate.add("feed", feed); //NOI18N
+		textTemplate.add("entry", entry); //NOI18N
+		ST htmlTemplate = new ST(IOUtils.toString(FeedItem.class.getResourceAsStream("templates/FeedItem.html")), '$', '$'); //NOI18N
+		htmlTemplate.add("feed", feed); //NOI18N
+		htmlTemplate.add("entry", entry); //NOI18N
+		return new String[]{textTemplate.render(), htmlTemplate.render()};
+	}
+
+	/**
+	 * Renders an entry with the shared precompiled templates.
+	 *
+	 * @return the rendered text and HTML
+	 * @throws IOException if the templates cannot be read
+	 */
+	@Benchmark
+	public String[] renderPrecompiled() throws IOException {
+		STGroup templates = FeedItem.getTemplates();
+		ST textTemplate = templates.getInstanceOf("FeedItemText"); //NOI18N
+		textTemplate.add("feed", feed); //NOI18N
+		textTemplate.add("entry", entry); //NOI18N
+		ST htmlTemplate = templates.getInstanceOf("FeedItemHtml"); //NOI18N
+		htmlTemplate.add("feed", feed); //NOI18N
+		htmlTemplate.add("entry", entry); //NOI18N
+		return new String[]{textTemplate.render(), htmlTemplate.render()};
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the command-line arguments
+	 * @throws RunnerException if the benchmark failed
+	 */
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(FeedItemRenderBenchmark.class.getSimpleName())
+				.forks(1)
+				.build()).run();
+	}
+}
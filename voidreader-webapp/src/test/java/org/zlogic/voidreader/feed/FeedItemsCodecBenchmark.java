@@ -0,0 +1,103 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.feed;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmark for encoding and decoding feed items in the packed binary format.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FeedItemsCodecBenchmark {
+
+	/**
+	 * The number of items
+	 */
+	@Param({"100", "1000", "10000"})
+	private int itemCount;
+	/**
+	 * The feed
+	 */
+	private Feed feed;
+	/**
+	 * The items to encode
+	 */
+	private List<FeedItem> items;
+	/**
+	 * The encoded items
+	 */
+	private byte[] encodedItems;
+
+	/**
+	 * Creates items which were last seen during the last 30 days.
+	 */
+	@Setup
+	public void setUp() {
+		Random random = new Random(0);
+		long today = TimeUnit.DAYS.toMillis(TimeUnit.MILLISECONDS.toDays(System.currentTimeMillis()));
+		feed = new Feed("http://example.com/feed", Arrays.asList("Feed"), null); //NOI18N
+		items = new ArrayList<>(itemCount);
+		for (int i = 0; i < itemCount; i++) {
+			Date lastSeen = new Date(today - TimeUnit.DAYS.toMillis(random.nextInt(30)));
+			FeedItem.State state = FeedItem.State.values()[random.nextInt(FeedItem.State.values().length)];
+			items.add(new FeedItem(feed, new ItemFingerprint(random.nextLong(), random.nextLong()), lastSeen, state));
+		}
+		encodedItems = FeedItemsCodec.encode(items);
+	}
+
+	/**
+	 * Encodes the items.
+	 *
+	 * @return the encoded items
+	 */
+	@Benchmark
+	public byte[] encode() {
+		return FeedItemsCodec.encode(items);
+	}
+
+	/**
+	 * Decodes the items.
+	 *
+	 * @return the decoded items
+	 */
+	@Benchmark
+	public List<FeedItem> decode() {
+		return FeedItemsCodec.decode(feed, encodedItems);
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the command-line arguments
+	 * @throws RunnerException if the benchmark failed
+	 */
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(FeedItemsCodecBenchmark.class.getSimpleName())
+				.forks(1)
+				.build()).run();
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.feed;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.EmbeddedEntity;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests for FeedItemsCodec and loading of cached feed items.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class FeedItemsCodecTest {
+
+	/**
+	 * The feed which owns the items
+	 */
+	private final Feed feed = new Feed("http://example.com/feed", Arrays.asList("Feed"), null); //NOI18N
+
+	/**
+	 * Creates feed items with different states and last seen dates
+	 *
+	 * @param count the number of items
+	 * @return the items
+	 */
+	private List<FeedItem> createItems(int count) {
+		long now = System.currentTimeMillis();
+		FeedItem.State[] states = FeedItem.State.values();
+		List<FeedItem> items = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			Date lastSeen = i % 5 == 0 ? null : new Date(now - TimeUnit.DAYS.toMillis(i % 7));
+			items.add(new FeedItem(feed, new ItemFingerprint(i * 31L, -i), lastSeen, states[i % states.length]));
+		}
+		return items;
+	}
+
+	/**
+	 * Checks that decoded items have the same IDs, states and last seen
+	 * dates as the original items
+	 *
+	 * @param expected the original items
+	 * @param actual the decoded items
+	 */
+	private void assertSameItems(Collection<FeedItem> expected, Collection<FeedItem> actual) {
+		assertEquals(expected.size(), actual.size());
+		Map<ItemFingerprint, FeedItem> actualItems = new HashMap<>();
+		for (FeedItem item : actual)
+			actualItems.put(item.getId(), item);
+		for (FeedItem item : expected) {
+			FeedItem actualItem = actualItems.get(item.getId());
+			assertNotNull(actualItem);
+			assertEquals(item.getState(), actualItem.getState());
+			assertEquals(item.getLastSeen(), actualItem.getLastSeen());
+		}
+	}
+
+	/**
+	 * Tests that a small set of items is stored without compression and
+	 * decoded unchanged.
+	 */
+	@Test
+	public void testRoundTrip() {
+		List<FeedItem> items = createItems(10);
+		byte[] data = FeedItemsCodec.encode(items);
+		assertEquals(0, data[1]);
+		assertSameItems(items, FeedItemsCodec.decode(feed, data));
+	}
+
+	/**
+	 * Tests that an empty set of items can be encoded and decoded.
+	 */
+	@Test
+	public void testEmpty() {
+		assertTrue(FeedItemsCodec.decode(feed, FeedItemsCodec.encode(new ArrayList<FeedItem>())).isEmpty());
+	}
+
+	/**
+	 * Tests that items without a last seen date keep a null date.
+	 */
+	@Test
+	public void testNullLastSeen() {
+		List<FeedItem> items = Arrays.asList(
+				new FeedItem(feed, new ItemFingerprint(1, 1), null, FeedItem.State.SENT_PDF),
+				new FeedItem(feed, new ItemFingerprint(2, 2), new Date(1000000000000L), FeedItem.State.SENT_ENTRY),
+				new FeedItem(feed, new ItemFingerprint(3, 3), null, FeedItem.State.SENT_ENTRY));
+		List<FeedItem> decoded = FeedItemsCodec.decode(feed, FeedItemsCodec.encode(items));
+		assertSameItems(items, decoded);
+		assertNull(decoded.get(0).getLastSeen());
+		assertNull(decoded.get(1).getLastSeen());
+	}
+
+	/**
+	 * Tests that a large set of items is compressed and decoded unchanged.
+	 */
+	@Test
+	public void testDeflate() {
+		List<FeedItem> items = new ArrayList<>();
+		Date lastSeen = new Date(1000000000000L);
+		for (int i = 0; i < 1000; i++)
+			items.add(new FeedItem(feed, new ItemFingerprint(0, i), lastSeen, FeedItem.State.SENT_PDF));
+		byte[] data = FeedItemsCodec.encode(items);
+		assertEquals(1, data[1]);
+		assertTrue(data.length < items.size() * 16);
+		assertSameItems(items, FeedItemsCodec.decode(feed, data));
+	}
+
+	/**
+	 * Tests that data with an unknown version is rejected.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsupportedVersion() {
+		FeedItemsCodec.decode(feed, new byte[]{(byte) 0x7f, 0});
+	}
+
+	/**
+	 * Tests that truncated data is rejected.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testTruncatedData() {
+		byte[] data = FeedItemsCodec.encode(createItems(10));
+		FeedItemsCodec.decode(feed, Arrays.copyOf(data, data.length - 3));
+	}
+
+	/**
+	 * Tests that items are loaded from the packed itemState property.
+	 */
+	@Test
+	public void testLoadItemState() {
+		List<FeedItem> items = createItems(10);
+		EmbeddedEntity entity = new EmbeddedEntity();
+		entity.setProperty("itemState", new Blob(FeedItemsCodec.encode(items))); //NOI18N
+		Feed loadedFeed = new Feed(feed.getUrl(), Arrays.asList("Feed"), null); //NOI18N
+		loadedFeed.loadItems(entity);
+		assertSameItems(items, loadedFeed.getItems());
+	}
+
+	/**
+	 * Tests that items are loaded from the legacy items property, with both
+	 * fingerprints and legacy string IDs.
+	 */
+	@Test
+	public void testLoadLegacyItems() {
+		Date lastSeen = new Date(1000000000000L);
+		EmbeddedEntity fingerprintItem = new EmbeddedEntity();
+		fingerprintItem.setProperty("fingerprint", new ItemFingerprint(1, 2).toShortBlob()); //NOI18N
+		fingerprintItem.setProperty("lastSeen", lastSeen); //NOI18N
+		fingerprintItem.setProperty("state", FeedItem.State.SENT_PDF.toString()); //NOI18N
+		EmbeddedEntity legacyIdItem = new EmbeddedEntity();
+		legacyIdItem.setProperty("id", "http://example.com/item"); //NOI18N
+		legacyIdItem.setProperty("lastSeen", null); //NOI18N
+		legacyIdItem.setProperty("state", FeedItem.State.SENT_ENTRY.toString()); //NOI18N
+		EmbeddedEntity entity = new EmbeddedEntity();
+		entity.setProperty("items", Arrays.asList(fingerprintItem, legacyIdItem)); //NOI18N
+
+		Feed loadedFeed = new Feed(feed.getUrl(), Arrays.asList("Feed"), null); //NOI18N
+		loadedFeed.loadItems(entity);
+		assertSameItems(Arrays.asList(
+				new FeedItem(feed, new ItemFingerprint(1, 2), lastSeen, FeedItem.State.SENT_PDF),
+				new FeedItem(feed, ItemFingerprint.fromLegacyId("http://example.com/item"), null, FeedItem.State.SENT_ENTRY)), //NOI18N
+				loadedFeed.getItems());
+		assertTrue(loadedFeed.isDirty());
+	}
+
+	/**
+	 * Tests that a feed without saved items has no items.
+	 */
+	@Test
+	public void testLoadNoItems() {
+		Feed loadedFeed = new Feed(feed.getUrl(), Arrays.asList("Feed"), null); //NOI18N
+		loadedFeed.loadItems(new EmbeddedEntity());
+		assertFalse(loadedFeed.getItems().iterator().hasNext());
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.feed;
+
+import com.google.appengine.api.datastore.EmbeddedEntity;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmark for merging downloaded items into a feed's cached items. The
+ * average time per merge should grow linearly with the number of items.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FeedItemsMergeBenchmark {
+
+	/**
+	 * The number of cached items
+	 */
+	@Param({"100", "1000", "10000"})
+	private int itemCount;
+	/**
+	 * The feed being updated
+	 */
+	private Feed feed;
+	/**
+	 * The downloaded items: half of them are cached, the other half are new
+	 */
+	private List<FeedItem> downloadedItems;
+	/**
+	 * The date after which feed items expire
+	 */
+	private Date cacheExpiryDate;
+
+	/**
+	 * Creates a feed with cached items and a list of downloaded items for
+	 * every merge.
+	 */
+	@Setup(Level.Invocation)
+	public void setUp() {
+		Date now = new Date();
+		cacheExpiryDate = new Date(now.getTime() - TimeUnit.DAYS.toMillis(1));
+		Date expiredDate = new Date(now.getTime() - TimeUnit.DAYS.toMillis(2));
+		feed = new Feed("http://example.com/feed", Arrays.asList("Feed"), null); //NOI18N
+		List<FeedItem> cachedItems = new ArrayList<>(itemCount);
+		for (int i = 0; i < itemCount; i++) {
+			EmbeddedEntity entity = new EmbeddedEntity();
+			entity.setProperty("fingerprint", new ItemFingerprint(0, i).toShortBlob()); //NOI18N
+			entity.setProperty("lastSeen", i % 3 == 0 ? expiredDate : now); //NOI18N
+			entity.setProperty("state", (i % 2 == 0 ? FeedItem.State.SENT_PDF : FeedItem.State.SENT_ENTRY).toString()); //NOI18N
+			cachedItems.add(new FeedItem(feed, entity));
+		}
+		Feed cachedFeed = new Feed(feed.getUrl(), Arrays.asList("Feed"), null); //NOI18N
+		cachedFeed.mergeItems(cachedItems, new Date(0), new ArrayList<FeedItem>());
+		feed.useItemsFrom(cachedFeed);
+		downloadedItems = new ArrayList<>(itemCount);
+		for (int i = itemCount / 2; i < itemCount + itemCount / 2; i++)
+			downloadedItems.add(new FeedItem(new ItemFingerprint(0, i)));
+	}
+
+	/**
+	 * Merges the downloaded items into the cached items.
+	 *
+	 * @return the items which should be handled
+	 */
+	@Benchmark
+	public List<FeedItem> mergeItems() {
+		List<FeedItem> newItems = new ArrayList<>();
+		feed.mergeItems(downloadedItems, cacheExpiryDate, newItems);
+		return newItems;
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the command-line arguments
+	 * @throws RunnerException if the benchmark failed
+	 */
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(FeedItemsMergeBenchmark.class.getSimpleName())
+				.forks(1)
+				.build()).run();
+	}
+}
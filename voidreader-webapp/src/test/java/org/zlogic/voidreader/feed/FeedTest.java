@@ -0,0 +1,179 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.feed;
+
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.feed.synd.SyndEntryImpl;
+import com.rometools.rome.feed.synd.SyndFeed;
+import com.rometools.rome.feed.synd.SyndFeedImpl;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Before;
+import org.junit.Test;
+import org.zlogic.voidreader.Settings;
+import org.zlogic.voidreader.fetcher.FeedFetcher;
+import org.zlogic.voidreader.fetcher.FeedRequest;
+import org.zlogic.voidreader.fetcher.FeedResponse;
+
+/**
+ * Tests for merging parsed feeds into a feed's cached items.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class FeedTest {
+
+	/**
+	 * The number of cached items
+	 */
+	private static final int ITEM_COUNT = 10;
+	/**
+	 * The feed being updated
+	 */
+	private Feed feed;
+	/**
+	 * The date after which feed items expire
+	 */
+	private Date cacheExpiryDate;
+
+	/**
+	 * Creates a feed with cached items which were last seen before the cache
+	 * expiry date.
+	 */
+	@Before
+	public void setUp() {
+		Properties properties = new Properties();
+		properties.setProperty("email.to", "user@example.com"); //NOI18N
+		Settings settings = new Settings("user", properties); //NOI18N
+		Date now = new Date();
+		cacheExpiryDate = new Date(now.getTime() - TimeUnit.DAYS.toMillis(1));
+		Date expiredDate = new Date(now.getTime() - TimeUnit.DAYS.toMillis(2));
+		feed = new Feed("http://example.com/feed", Arrays.asList("Feed"), settings); //NOI18N
+		List<FeedItem> cachedItems = new ArrayList<>(ITEM_COUNT);
+		for (int i = 0; i < ITEM_COUNT; i++)
+			cachedItems.add(new FeedItem(feed, FeedItem.createId(feed, createEntry(i)), expiredDate, FeedItem.State.SENT_PDF));
+		feed.mergeItems(cachedItems, new Date(0), new ArrayList<FeedItem>());
+	}
+
+	/**
+	 * Creates a feed entry
+	 *
+	 * @param index the entry index
+	 * @return the entry
+	 */
+	private SyndEntry createEntry(int index) {
+		SyndEntry entry = new SyndEntryImpl();
+		entry.setTitle("Item " + index); //NOI18N
+		entry.setLink("http://example.com/item" + index); //NOI18N
+		entry.setUri(entry.getLink());
+		return entry;
+	}
+
+	/**
+	 * Creates a parsed feed with the first entries of the feed
+	 *
+	 * @param entryCount the number of entries
+	 * @param truncated true if the parser stopped before the end of the feed
+	 * @return the parsed feed
+	 */
+	private ParsedFeed createParsedFeed(int entryCount, boolean truncated) {
+		return createParsedFeed(entryCount, truncated, null);
+	}
+
+	/**
+	 * Creates a parsed feed with the first entries of the feed
+	 *
+	 * @param entryCount the number of entries
+	 * @param truncated true if the parser stopped before the end of the feed
+	 * @param etag the ETag returned by the server
+	 * @return the parsed feed
+	 */
+	private ParsedFeed createParsedFeed(int entryCount, boolean truncated, String etag) {
+		SyndFeed syndFeed = new SyndFeedImpl();
+		syndFeed.setTitle("Feed"); //NOI18N
+		List<SyndEntry> entries = new ArrayList<>(entryCount);
+		for (int i = 0; i < entryCount; i++)
+			entries.add(createEntry(i));
+		syndFeed.setEntries(entries);
+		return new ParsedFeed(syndFeed, etag, null, truncated);
+	}
+
+	/**
+	 * Returns the ETag which the feed sends with its next download
+	 *
+	 * @return the ETag of the next download
+	 */
+	private String getRequestEtag() {
+		final List<FeedRequest> requests = new ArrayList<>();
+		feed.fetch(new FeedFetcher() {
+
+			@Override
+			public Future<FeedResponse> fetch(FeedRequest request) {
+				requests.add(request);
+				return null;
+			}
+		});
+		return requests.get(0).getEtag();
+	}
+
+	/**
+	 * Tests that items which are missing from a truncated parse are not
+	 * expired.
+	 */
+	@Test
+	public void testTruncatedParseKeepsItems() {
+		List<FeedItem> newItems = new ArrayList<>();
+		feed.update(createParsedFeed(3, true), cacheExpiryDate, newItems);
+		assertEquals(0, newItems.size());
+		assertEquals(ITEM_COUNT, feed.getItems().size());
+	}
+
+	/**
+	 * Tests that the ETag of a download is kept once all of its new items
+	 * were delivered.
+	 */
+	@Test
+	public void testValidatorsKeptAfterDelivery() {
+		List<FeedItem> newItems = new ArrayList<>();
+		feed.update(createParsedFeed(ITEM_COUNT + 2, false, "etag"), cacheExpiryDate, newItems); //NOI18N
+		assertEquals(2, newItems.size());
+		for (FeedItem item : newItems)
+			item.setState(FeedItem.State.SENT_ENTRY);
+		feed.commitValidators();
+		assertEquals("etag", getRequestEtag()); //NOI18N
+	}
+
+	/**
+	 * Tests that the ETag of a download is not kept if any of its new items
+	 * failed to be delivered, so that the next update downloads the feed
+	 * again.
+	 */
+	@Test
+	public void testValidatorsClearedAfterFailedDelivery() {
+		List<FeedItem> newItems = new ArrayList<>();
+		feed.update(createParsedFeed(ITEM_COUNT + 2, false, "etag"), cacheExpiryDate, newItems); //NOI18N
+		newItems.get(0).setState(FeedItem.State.SENT_PDF);
+		feed.commitValidators();
+		assertNull(getRequestEtag());
+	}
+
+	/**
+	 * Tests that items which are missing from a complete parse are expired.
+	 */
+	@Test
+	public void testCompleteParseExpiresItems() {
+		List<FeedItem> newItems = new ArrayList<>();
+		feed.update(createParsedFeed(3, false), cacheExpiryDate, newItems);
+		assertEquals(0, newItems.size());
+		assertEquals(3, feed.getItems().size());
+	}
+}
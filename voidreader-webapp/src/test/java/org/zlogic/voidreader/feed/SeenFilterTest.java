@@ -0,0 +1,131 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.feed;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests for SeenFilter.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class SeenFilterTest {
+
+	/**
+	 * The false positive rate used in tests
+	 */
+	private static final double FALSE_POSITIVE_RATE = 0.001;
+	/**
+	 * A date used as the current date
+	 */
+	private static final Date today = new Date(1000000000000L);
+	/**
+	 * A date several days before today
+	 */
+	private static final Date lastWeek = new Date(today.getTime() - TimeUnit.DAYS.toMillis(7));
+
+	/**
+	 * Tests that added items are reported as seen, and that the false
+	 * positive rate is close to the configured rate.
+	 */
+	@Test
+	public void testMightContain() {
+		SeenFilter filter = new SeenFilter(FALSE_POSITIVE_RATE);
+		assertTrue(filter.isEmpty());
+		for (int i = 0; i < 1000; i++)
+			filter.add(new ItemFingerprint(i, i * 7919L), today);
+		assertFalse(filter.isEmpty());
+		for (int i = 0; i < 1000; i++)
+			assertTrue(filter.mightContain(new ItemFingerprint(i, i * 7919L)));
+		int falsePositives = 0;
+		for (int i = 1000; i < 11000; i++)
+			if (filter.mightContain(new ItemFingerprint(i, i * 7919L)))
+				falsePositives++;
+		assertTrue(falsePositives < 100);
+	}
+
+	/**
+	 * Tests that a serialized filter is restored unchanged.
+	 */
+	@Test
+	public void testSerialization() {
+		SeenFilter filter = new SeenFilter(FALSE_POSITIVE_RATE);
+		for (int i = 0; i < 5000; i++)
+			filter.add(new ItemFingerprint(i, -i), i < 4096 ? lastWeek : today);
+		byte[] data = filter.toByteArray();
+		SeenFilter restored = new SeenFilter(data, FALSE_POSITIVE_RATE);
+		for (int i = 0; i < 5000; i++)
+			assertTrue(restored.mightContain(new ItemFingerprint(i, -i)));
+		assertArrayEquals(data, restored.toByteArray());
+	}
+
+	/**
+	 * Tests that data with an unknown version is rejected.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsupportedVersion() {
+		new SeenFilter(new byte[]{(byte) 0x7f, 0, 0, 0, 0}, FALSE_POSITIVE_RATE);
+	}
+
+	/**
+	 * Tests that truncated data is rejected.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testTruncatedData() {
+		SeenFilter filter = new SeenFilter(FALSE_POSITIVE_RATE);
+		filter.add(new ItemFingerprint(1, 1), today);
+		byte[] data = filter.toByteArray();
+		byte[] truncated = new byte[data.length / 2];
+		System.arraycopy(data, 0, truncated, 0, truncated.length);
+		new SeenFilter(truncated, FALSE_POSITIVE_RATE);
+	}
+
+	/**
+	 * Tests that only generations which had no items added since the expiry
+	 * date are removed.
+	 */
+	@Test
+	public void testExpireGenerations() {
+		SeenFilter filter = new SeenFilter(FALSE_POSITIVE_RATE);
+		//The first generation is full after 4096 items
+		for (int i = 0; i < 4096; i++)
+			filter.add(new ItemFingerprint(i, -i), lastWeek);
+		ItemFingerprint newItem = new ItemFingerprint(-1, 1);
+		filter.add(newItem, today);
+		Date expiryDate = new Date(today.getTime() - TimeUnit.DAYS.toMillis(1));
+
+		assertTrue(filter.expire(expiryDate));
+		assertFalse(filter.expire(expiryDate));
+		assertTrue(filter.mightContain(newItem));
+		int remaining = 0;
+		for (int i = 0; i < 4096; i++)
+			if (filter.mightContain(new ItemFingerprint(i, -i)))
+				remaining++;
+		assertTrue(remaining < 100);
+
+		assertTrue(filter.expire(new Date(today.getTime() + 1)));
+		assertTrue(filter.isEmpty());
+	}
+
+	/**
+	 * Tests that refreshing an item keeps its generation from expiring.
+	 */
+	@Test
+	public void testRefresh() {
+		SeenFilter filter = new SeenFilter(FALSE_POSITIVE_RATE);
+		ItemFingerprint item = new ItemFingerprint(1, 2);
+		filter.add(item, lastWeek);
+		assertTrue(filter.refresh(item, today));
+		assertFalse(filter.refresh(item, today));
+		assertFalse(filter.expire(new Date(today.getTime() - TimeUnit.DAYS.toMillis(1))));
+		assertTrue(filter.mightContain(item));
+	}
+}
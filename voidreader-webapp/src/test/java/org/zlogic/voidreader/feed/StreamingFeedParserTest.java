@@ -0,0 +1,153 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.feed;
+
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.feed.synd.SyndFeed;
+import com.rometools.rome.io.FeedException;
+import com.rometools.rome.io.SyndFeedInput;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests that StreamingFeedParser produces the same item IDs as ROME.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class StreamingFeedParserTest {
+
+	/**
+	 * The feed used for creating item IDs
+	 */
+	private final Feed feed = new Feed("http://example.com/feed", Arrays.asList("Feed"), null); //NOI18N
+
+	/**
+	 * Opens a fixture feed document
+	 *
+	 * @param name the fixture name
+	 * @return the fixture reader
+	 */
+	private Reader openFixture(String name) {
+		return new InputStreamReader(getClass().getResourceAsStream(name), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the item IDs of a parsed feed
+	 *
+	 * @param syndFeed the parsed feed
+	 * @return the item IDs
+	 */
+	private List<ItemFingerprint> getIds(SyndFeed syndFeed) {
+		List<ItemFingerprint> ids = new ArrayList<>();
+		for (SyndEntry entry : syndFeed.getEntries())
+			ids.add(FeedItem.createId(feed, entry));
+		return ids;
+	}
+
+	/**
+	 * Parses a fixture with ROME and the streaming parser and checks that the
+	 * item IDs are the same.
+	 *
+	 * @param name the fixture name
+	 * @throws IOException on failure
+	 * @throws FeedException on failure
+	 */
+	private void assertSameIds(String name) throws IOException, FeedException {
+		List<ItemFingerprint> romeIds, streamingIds;
+		try (Reader reader = openFixture(name)) {
+			romeIds = getIds(new SyndFeedInput().build(reader));
+		}
+		StreamingFeedParser parser = new StreamingFeedParser(0);
+		try (Reader reader = openFixture(name)) {
+			streamingIds = getIds(parser.parse(reader, new StreamingFeedParser.EntryFilter() {
+
+				@Override
+				public boolean isKnown(SyndEntry entry) {
+					return false;
+				}
+			}));
+		}
+		assertFalse(romeIds.isEmpty());
+		assertEquals(romeIds, streamingIds);
+		assertFalse(parser.isTruncated());
+	}
+
+	/**
+	 * Tests RSS 2.0 guid and permalink handling.
+	 *
+	 * @throws IOException on failure
+	 * @throws FeedException on failure
+	 */
+	@Test
+	public void testRss20() throws IOException, FeedException {
+		assertSameIds("rss20.xml"); //NOI18N
+	}
+
+	/**
+	 * Tests that guids are ignored in RSS versions which don't support them.
+	 *
+	 * @throws IOException on failure
+	 * @throws FeedException on failure
+	 */
+	@Test
+	public void testRss092() throws IOException, FeedException {
+		assertSameIds("rss092.xml"); //NOI18N
+	}
+
+	/**
+	 * Tests RSS 1.0 rdf:about handling.
+	 *
+	 * @throws IOException on failure
+	 * @throws FeedException on failure
+	 */
+	@Test
+	public void testRss10() throws IOException, FeedException {
+		assertSameIds("rss10.xml"); //NOI18N
+	}
+
+	/**
+	 * Tests Atom 1.0 id and link handling.
+	 *
+	 * @throws IOException on failure
+	 * @throws FeedException on failure
+	 */
+	@Test
+	public void testAtom10() throws IOException, FeedException {
+		assertSameIds("atom10.xml"); //NOI18N
+	}
+
+	/**
+	 * Tests that parsing stops after the configured number of known entries.
+	 *
+	 * @throws IOException on failure
+	 * @throws FeedException on failure
+	 */
+	@Test
+	public void testStopsAfterKnownEntries() throws IOException, FeedException {
+		StreamingFeedParser parser = new StreamingFeedParser(2);
+		SyndFeed syndFeed;
+		try (Reader reader = openFixture("rss20.xml")) { //NOI18N
+			syndFeed = parser.parse(reader, new StreamingFeedParser.EntryFilter() {
+
+				@Override
+				public boolean isKnown(SyndEntry entry) {
+					return true;
+				}
+			});
+		}
+		assertEquals(2, syndFeed.getEntries().size());
+		assertTrue(parser.isTruncated());
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Void Reader project.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.voidreader.fetcher;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import org.apache.commons.io.IOUtils;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Tests for FeedStreamDecoder character set detection.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class FeedStreamDecoderTest {
+
+	/**
+	 * Decodes a body with a Content-Type header
+	 *
+	 * @param body the body
+	 * @param contentType the Content-Type header value, or null
+	 * @return the decoded body
+	 * @throws IOException on failure
+	 */
+	private String decode(byte[] body, String contentType) throws IOException {
+		try (Reader reader = FeedStreamDecoder.createReader(new ByteArrayInputStream(body), contentType)) {
+			return IOUtils.toString(reader);
+		}
+	}
+
+	/**
+	 * Tests that a body shorter than the lookahead buffer is decoded with the
+	 * charset from its XML prolog.
+	 *
+	 * @throws IOException on failure
+	 */
+	@Test
+	public void testShortBodyPrologCharset() throws IOException {
+		String document = "<?xml version=\"1.0\" encoding=\"koi8-r\"?><a>Фид</a>"; //NOI18N
+		assertEquals(document, decode(document.getBytes("koi8-r"), null)); //NOI18N
+	}
+
+	/**
+	 * Tests that the last byte of a short body is used for byte order mark
+	 * detection.
+	 *
+	 * @throws IOException on failure
+	 */
+	@Test
+	public void testBodyWithOnlyByteOrderMark() throws IOException {
+		assertEquals("", decode(new byte[]{(byte) 0xef, (byte) 0xbb, (byte) 0xbf}, null)); //NOI18N
+	}
+
+	/**
+	 * Tests that the Content-Type charset takes precedence over the XML
+	 * prolog.
+	 *
+	 * @throws IOException on failure
+	 */
+	@Test
+	public void testContentTypeCharset() throws IOException {
+		String document = "<?xml version=\"1.0\" encoding=\"koi8-r\"?><a>Ф</a>"; //NOI18N
+		assertEquals(document, decode(document.getBytes("windows-1251"), "text/xml; charset=windows-1251")); //NOI18N
+	}
+
+	/**
+	 * Tests that an empty body is decoded.
+	 *
+	 * @throws IOException on failure
+	 */
+	@Test
+	public void testEmptyBody() throws IOException {
+		assertEquals("", decode(new byte[0], null)); //NOI18N
+	}
+}